@@ -4,9 +4,9 @@ package nachos.machine;
 
 import nachos.security.*;
 
+import java.util.Arrays;
+import java.util.Random;
 import java.util.TreeSet;
-import java.util.Iterator;
-import java.util.SortedSet;
 
 /**
  * The <tt>Interrupt</tt> class emulates low-level interrupt hardware. The
@@ -53,7 +53,7 @@ public final class Interrupt {
 	privilege.interrupt = new InterruptPrivilege();
 	
 	enabled = false;
-	pending = new TreeSet<PendingInterrupt>();
+	pending = new PendingQueue();
     }
 
     /**
@@ -96,7 +96,8 @@ public final class Interrupt {
 	boolean oldStatus = enabled;
 	enabled = status;
 	
-        Lib.debug('I',"Setting interrupt status to "+status);
+	if (Lib.test('I'))
+	    System.out.println("Setting interrupt status to " + status);
         
 	if (oldStatus == false && status == true)
 	    tick(true);
@@ -104,6 +105,35 @@ public final class Interrupt {
 	return oldStatus;
     }
 
+    /**
+     * Wait for the next interrupt, when there is nothing else to do. Called by
+     * the idle thread with interrupts disabled, just before it enables them
+     * again. Until an interrupt is due, the idle thread would only keep
+     * enabling interrupts, each time advancing the simulated time by
+     * <tt>Stats.KernelTick</tt>, so skip straight to the last of those enables
+     * before the next interrupt. Interrupts are handled at exactly the same
+     * time as if the idle thread had spun.
+     */
+    public void idle() {
+	Lib.assertTrue(disabled());
+
+	// the interrupt trace prints every tick
+	if (Lib.test(dbgInt) || pending.isEmpty())
+	    return;
+
+	Stats stats = privilege.stats;
+	
+	long until = pending.firstTime() - stats.totalTicks;
+	if (until <= Stats.KernelTick)
+	    return;
+
+	long skipped = (until-1) / Stats.KernelTick * Stats.KernelTick;
+
+	stats.kernelTicks += skipped;
+	stats.totalTicks += skipped;
+	stats.idleTicksSkipped += skipped;
+    }
+
     /**
      * Tests whether interrupts are enabled.
      *
@@ -126,13 +156,12 @@ public final class Interrupt {
 	Lib.assertTrue(when>0);
 	
 	long time = privilege.stats.totalTicks + when;
-	PendingInterrupt toOccur = new PendingInterrupt(time, type, handler);
 
-	Lib.debug(dbgInt,
-		  "Scheduling the " + type +
-		  " interrupt handler at time = " + time);
+	if (Lib.test(dbgInt))
+	    System.out.println("Scheduling the " + type +
+			       " interrupt handler at time = " + time);
 
-	pending.add(toOccur);
+	pending.add(time, type, handler);
     }
 
     private void tick(boolean inKernelMode) {
@@ -155,6 +184,30 @@ public final class Interrupt {
 	enabled = true;
     }
 
+    private long skippableUserTicks() {
+	// the interrupt trace prints every tick
+	if (Lib.test(dbgInt))
+	    return 0;
+
+	if (pending.isEmpty())
+	    return Long.MAX_VALUE;
+
+	long until = pending.firstTime() - privilege.stats.totalTicks;
+	
+	return (until > 0) ? (until-1) / Stats.UserTick : 0;
+    }
+
+    private void skipUserTicks(long count) {
+	Lib.assertTrue(count >= 0 && count <= skippableUserTicks());
+	
+	Stats stats = privilege.stats;
+	
+	stats.userTicks += count * Stats.UserTick;
+	stats.totalTicks += count * Stats.UserTick;
+
+	enabled = true;
+    }
+
     private void checkIfDue() {
 	long time = privilege.stats.totalTicks;
 
@@ -166,24 +219,28 @@ public final class Interrupt {
 	if (pending.isEmpty())
 	    return;
 
-	if (((PendingInterrupt) pending.first()).time > time)
+	if (pending.firstTime() > time)
 	    return;
 
-	Lib.debug(dbgInt, "Invoking interrupt handlers at time = " + time);
+	if (Lib.test(dbgInt))
+	    System.out.println("Invoking interrupt handlers at time = " + time);
 	
-	while (!pending.isEmpty() &&
-	       ((PendingInterrupt) pending.first()).time <= time) {
-	    PendingInterrupt next = (PendingInterrupt) pending.first();
-	    pending.remove(next);
+	while (!pending.isEmpty() && pending.firstTime() <= time) {
+	    PendingInterrupt next = pending.removeFirst();
 
 	    Lib.assertTrue(next.time <= time);
 
 	    if (privilege.processor != null)
 		privilege.processor.flushPipe();
 
-	    Lib.debug(dbgInt, "  " + next.type);
-			
-	    next.handler.run();
+	    if (Lib.test(dbgInt))
+		System.out.println("  " + next.type);
+
+	    // the handler may schedule another interrupt, reusing next
+	    Runnable handler = next.handler;
+	    pending.free(next);
+	    
+	    handler.run();
 	}
 
 	Lib.debug(dbgInt, "  (end of list)");
@@ -194,34 +251,45 @@ public final class Interrupt {
 			   + ", interrupts " + (enabled ? "on" : "off"));
 	System.out.println("Pending interrupts:");
 
-	for (Iterator i=pending.iterator(); i.hasNext(); ) {
-	    PendingInterrupt toOccur = (PendingInterrupt) i.next();
-	    System.out.println("  " + toOccur.type +
-			       ", scheduled at " + toOccur.time);
+	PendingInterrupt[] sorted = pending.toArray();
+	Arrays.sort(sorted);
+	
+	for (int i=0; i<sorted.length; i++) {
+	    System.out.println("  " + sorted[i].type +
+			       ", scheduled at " + sorted[i].time);
 	}
 
 	System.out.println("  (end of list)");
     }
 
-    private class PendingInterrupt implements Comparable {
-	PendingInterrupt(long time, String type, Runnable handler) {
+    private static class PendingInterrupt
+	implements Comparable<PendingInterrupt> {
+	PendingInterrupt(long time, String type, Runnable handler, long id) {
+	    set(time, type, handler, id);
+	}
+
+	void set(long time, String type, Runnable handler, long id) {
 	    this.time = time;
 	    this.type = type;
 	    this.handler = handler;
-	    this.id = numPendingInterruptsCreated++;
+	    this.id = id;
 	}
 
-	public int compareTo(Object o) {
-	    PendingInterrupt toOccur = (PendingInterrupt) o;
+	/**
+	 * Return <tt>true</tt> if this interrupt should be handled before
+	 * <i>toOccur</i>. Interrupts due at the same time are handled in the
+	 * order they were scheduled.
+	 */
+	boolean before(PendingInterrupt toOccur) {
+	    return time < toOccur.time ||
+		(time == toOccur.time && id < toOccur.id);
+	}
 
+	public int compareTo(PendingInterrupt toOccur) {
 	    // can't return 0 for unequal objects, so check all fields
-	    if (time < toOccur.time)
+	    if (before(toOccur))
 		return -1;
-	    else if (time > toOccur.time)
-		return 1;
-	    else if (id < toOccur.id)
-		return -1;
-	    else if (id > toOccur.id)
+	    else if (toOccur.before(this))
 		return 1;
 	    else
 		return 0;
@@ -232,14 +300,187 @@ public final class Interrupt {
 	Runnable handler;
 
 	private long id;
+	/** The next free entry, if this entry is on the free list. */
+	private PendingInterrupt nextFree;
+    }
+
+    /**
+     * A binary min-heap of pending interrupts, ordered the same way as
+     * <tt>PendingInterrupt.compareTo()</tt>. Entries removed from the queue
+     * are kept on a free list and reused, since the same devices schedule
+     * interrupts over and over.
+     */
+    private static class PendingQueue {
+	boolean isEmpty() {
+	    return size == 0;
+	}
+
+	/**
+	 * Return the time of the next interrupt. The queue must not be empty.
+	 */
+	long firstTime() {
+	    return heap[0].time;
+	}
+
+	void add(long time, String type, Runnable handler) {
+	    PendingInterrupt toOccur = freeList;
+	    if (toOccur != null) {
+		freeList = toOccur.nextFree;
+		toOccur.set(time, type, handler, numCreated++);
+	    }
+	    else {
+		toOccur = new PendingInterrupt(time, type, handler,
+					       numCreated++);
+	    }
+
+	    if (size == heap.length)
+		heap = Arrays.copyOf(heap, size*2);
+
+	    // sift up from the new leaf
+	    int i = size++;
+	    while (i > 0) {
+		int parent = (i-1) / 2;
+		if (!toOccur.before(heap[parent]))
+		    break;
+		heap[i] = heap[parent];
+		i = parent;
+	    }
+	    heap[i] = toOccur;
+	}
+
+	/**
+	 * Remove and return the next interrupt. The queue must not be empty.
+	 * The caller should pass the result to <tt>free()</tt> once it is done
+	 * with it.
+	 */
+	PendingInterrupt removeFirst() {
+	    PendingInterrupt first = heap[0];
+	    PendingInterrupt last = heap[--size];
+	    heap[size] = null;
+
+	    // sift the last leaf down from the root
+	    if (size > 0) {
+		int i = 0;
+		while (true) {
+		    int child = 2*i + 1;
+		    if (child >= size)
+			break;
+		    if (child+1 < size && heap[child+1].before(heap[child]))
+			child++;
+		    if (!heap[child].before(last))
+			break;
+		    heap[i] = heap[child];
+		    i = child;
+		}
+		heap[i] = last;
+	    }
+
+	    return first;
+	}
+
+	void free(PendingInterrupt toOccur) {
+	    toOccur.type = null;
+	    toOccur.handler = null;
+	    toOccur.nextFree = freeList;
+	    freeList = toOccur;
+	}
+
+	/** Return the pending interrupts, in no particular order. */
+	PendingInterrupt[] toArray() {
+	    return Arrays.copyOf(heap, size);
+	}
+
+	private PendingInterrupt[] heap = new PendingInterrupt[16];
+	private int size = 0;
+	private PendingInterrupt freeList = null;
+	private long numCreated = 0;
+    }
+
+    /**
+     * Check that the pending interrupt queue handles interrupts in the same
+     * order as a <tt>TreeSet</tt>, and compare how quickly the two can
+     * schedule and dispatch them.
+     */
+    public static void selfTest() {
+	System.out.println("**** Interrupt queue testing begins ****");
+
+	final int numDispatches = 1000000;
+	int[] numPending = { 4, 64, 1024 };
+
+	for (int i=0; i<numPending.length; i++) {
+	    long start = System.nanoTime();
+	    long heapChecksum = testQueue(numPending[i], numDispatches);
+	    long heapTime = System.nanoTime() - start;
+
+	    start = System.nanoTime();
+	    long treeChecksum = testTreeSet(numPending[i], numDispatches);
+	    long treeTime = System.nanoTime() - start;
+
+	    Lib.assertTrue(heapChecksum == treeChecksum,
+			   "heap and TreeSet dispatched in different orders");
+
+	    System.out.println(numPending[i] + " pending: heap " +
+			       heapTime/numDispatches + "ns, TreeSet " +
+			       treeTime/numDispatches +
+			       "ns per schedule and dispatch");
+	}
+
+	System.out.println("**** Interrupt queue testing ends ****");
+    }
+
+    /**
+     * Keep <i>numPending</i> interrupts in a queue, and repeatedly dispatch
+     * the next one and schedule another at a pseudo-random later time.
+     * Returns a checksum of the order the interrupts were dispatched in.
+     */
+    private static long testQueue(int numPending, int numDispatches) {
+	Random random = new Random(numPending);
+	PendingQueue queue = new PendingQueue();
+
+	for (int i=0; i<numPending; i++)
+	    queue.add(1 + random.nextInt(100), "test", null);
+
+	long checksum = 0;
+	for (int i=0; i<numDispatches; i++) {
+	    PendingInterrupt next = queue.removeFirst();
+	    long time = next.time;
+	    checksum = checksum*31 + next.id;
+	    queue.free(next);
+
+	    queue.add(time + 1 + random.nextInt(100), "test", null);
+	}
+
+	return checksum;
+    }
+
+    /** Same as <tt>testQueue()</tt>, but using a <tt>TreeSet</tt>. */
+    private static long testTreeSet(int numPending, int numDispatches) {
+	Random random = new Random(numPending);
+	TreeSet<PendingInterrupt> queue = new TreeSet<PendingInterrupt>();
+	long numCreated = 0;
+
+	for (int i=0; i<numPending; i++) {
+	    queue.add(new PendingInterrupt(1 + random.nextInt(100), "test",
+					   null, numCreated++));
+	}
+
+	long checksum = 0;
+	for (int i=0; i<numDispatches; i++) {
+	    PendingInterrupt next = queue.first();
+	    queue.remove(next);
+	    checksum = checksum*31 + next.id;
+
+	    queue.add(new PendingInterrupt(next.time + 1 + random.nextInt(100),
+					   "test", null, numCreated++));
+	}
+
+	return checksum;
     }
-    
-    private long numPendingInterruptsCreated = 0;
 
     private Privilege privilege;
 
     private boolean enabled;
-    private TreeSet<PendingInterrupt> pending;
+    private PendingQueue pending;
 
     private static final char dbgInt = 'i';
 
@@ -251,5 +492,13 @@ public final class Interrupt {
 	public void tick(boolean inKernelMode) {
 	    Interrupt.this.tick(inKernelMode);
 	}
+
+	public long skippableUserTicks() {
+	    return Interrupt.this.skippableUserTicks();
+	}
+
+	public void skipUserTicks(long count) {
+	    Interrupt.this.skipUserTicks(count);
+	}
     }
 }
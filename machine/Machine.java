@@ -6,6 +6,10 @@ import nachos.security.*;
 import nachos.ag.*;
 
 import java.io.File;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.Vector;
 
 /**
  * The master class of the simulated machine. Processes command line arguments,
@@ -97,9 +101,60 @@ public final class Machine {
     public static void halt() {
 	System.out.print("Machine halting!\n\n");
 	stats.print();
+	for (Iterator<Runnable> i=haltReports.iterator(); i.hasNext(); )
+	    i.next().run();
 	terminate();
     }
 
+    /**
+     * Add a report to print after the statistics when Nachos halts, for
+     * statistics the kernel keeps itself.
+     *
+     * @param	report	prints the report.
+     */
+    public static void addHaltReport(Runnable report) {
+	haltReports.add(report);
+    }
+
+    /**
+     * Record that a real-time job missed its deadline. The count is printed
+     * with the other statistics when Nachos halts.
+     */
+    public static void deadlineMissed() {
+	stats.numDeadlineMisses++;
+    }
+
+    /**
+     * Return the number of deadlines real-time jobs have missed so far.
+     *
+     * @return	the number of deadline misses recorded.
+     */
+    public static int getDeadlineMisses() {
+	return stats.numDeadlineMisses;
+    }
+
+    /**
+     * Return the number of collections the JVM's garbage collectors have run
+     * so far, for benchmarks of code that should not allocate. The kernel is
+     * not allowed to ask the JVM itself.
+     *
+     * @return	the number of garbage collections.
+     */
+    public static long getGarbageCollections() {
+	final long[] count = new long[1];
+
+	privilege.doPrivileged(new Runnable() {
+		public void run() {
+		    for (Iterator<GarbageCollectorMXBean> i =
+			     ManagementFactory.getGarbageCollectorMXBeans()
+			     .iterator(); i.hasNext(); )
+			count[0] += Math.max(0, i.next().getCollectionCount());
+		}
+	    });
+
+	return count[0];
+    }
+
     /**
      * Return an array containing all command line arguments.
      *
@@ -409,6 +464,7 @@ public final class Machine {
     private static String[] args = null;
 
     private static Stats stats = new Stats();
+    private static Vector<Runnable> haltReports = new Vector<Runnable>();
 
     private static int numPhysPages = -1;
     private static long randomSeed = 0;
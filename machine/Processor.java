@@ -47,10 +47,33 @@ public final class Processor {
 
 	mainMemory = new byte[pageSize * numPhysPages];
 
+	exceptions = new MipsException[exceptionNames.length];
+	for (int i=0; i<exceptionNames.length; i++)
+	    exceptions[i] = new MipsException(i);
+	decodeCache = new Decoded[numPhysPages][];
+
+	tracing = (Lib.test(dbgProcessor) || Lib.test(dbgDisassemble) ||
+		   Lib.test(dbgFullDisassemble));
+
+	// translated blocks are not traced, so tracing turns them off
+	translating =
+	    !tracing && Config.getBoolean("Processor.translate", false);
+	checkingTranslations =
+	    translating && Config.getBoolean("Processor.translateCheck", false);
+
 	if (usingTLB) {
+	    tlbSize = Config.getInteger("Processor.tlbSize", 4);
+	    Lib.assertTrue(tlbSize > 0, "TLB must have at least one entry");
+	    
 	    translations = new TranslationEntry[tlbSize];
 	    for (int i=0; i<tlbSize; i++)
 		translations[i] = new TranslationEntry();
+
+	    // at most half full, so that probes stay short
+	    int hashSize = 1;
+	    while (hashSize < tlbSize*2)
+		hashSize *= 2;
+	    tlbHash = new int[hashSize];
 	}
 	else {
 	    translations = null;
@@ -91,20 +114,322 @@ public final class Processor {
 
 	Machine.autoGrader().runProcessor(privilege);
 
-	Instruction inst = new Instruction();
+	Instruction inst = tracing ? new TracedInstruction() : new Instruction();
+
+	flushTicks();
 	
 	while (true) {
 	    try {
-		inst.run();
+		if (translating)
+		    step(inst);
+		else
+		    inst.run();
 	    }
 	    catch (MipsException e) {
 		e.handle();
 	    }
 
-	    privilege.interrupt.tick(false);
+	    tick();
 	}
     }
 
+    /**
+     * Advance the simulated time after a user instruction. As long as no
+     * interrupt can become due, the ticks are only counted here, and are
+     * added to the statistics in one batch by <tt>flushTicks()</tt>.
+     */
+    private void tick() {
+	if (skippedTicks < skippableTicks) {
+	    skippedTicks++;
+	    return;
+	}
+
+	flushTicks();
+	privilege.interrupt.tick(false);
+	skippableTicks = privilege.interrupt.skippableUserTicks();
+    }
+
+    /**
+     * Add the ticks counted by <tt>tick()</tt> to the statistics, and make the
+     * next tick a real one. Must be called before any kernel code runs, since
+     * the kernel may read the time or schedule an interrupt.
+     */
+    private void flushTicks() {
+	if (skippedTicks > 0)
+	    privilege.interrupt.skipUserTicks(skippedTicks);
+
+	skippedTicks = 0;
+	skippableTicks = 0;
+    }
+
+    /**
+     * Execute either a single instruction, or, if the PC is at the start of a
+     * hot basic block, the translated form of that block. Like
+     * <tt>Instruction.run()</tt>, the caller must advance the simulated time
+     * after this returns; a block advances the time itself between the
+     * instructions it executes.
+     *
+     * @param	inst	the interpreter to use for untranslated code.
+     * @exception	MipsException	if an instruction caused an exception.
+     */
+    private void step(Instruction inst) throws MipsException {
+	if (!atBranchTarget || registers[regPC] != branchTarget) {
+	    inst.run();
+	    return;
+	}
+
+	atBranchTarget = false;
+
+	int paddr = translate(registers[regPC], 4, accessFetch);
+	Decoded decoded = lookupDecoded(paddr,
+					Lib.bytesToInt(mainMemory, paddr));
+
+	if (decoded.block == null && ++decoded.hits == hotThreshold)
+	    decoded.block = translateBlock(paddr);
+
+	if (decoded.block != null && decoded.block.validate())
+	    decoded.block.run(inst);
+	else
+	    inst.run();
+    }
+
+    /**
+     * Translate the basic block starting at physical address <i>paddr</i>.
+     * A block ends with its first branch or jump (and that instruction's
+     * delay slot), just before the first syscall or illegal instruction, or
+     * at the end of the physical page, whichever comes first.
+     *
+     * @param	paddr	the physical address of the first instruction.
+     * @return	the translated block, or <tt>null</tt> if the block is too
+     *		short to be worth translating.
+     */
+    private Block translateBlock(int paddr) {
+	int pageEnd = (paddr / pageSize + 1) * pageSize;
+	int length = 0;
+	Decoded[] decoded = new Decoded[maxBlockLength];
+
+	for (int a=paddr; a<pageEnd && length<maxBlockLength; a+=4) {
+	    Decoded d = lookupDecoded(a, Lib.bytesToInt(mainMemory, a));
+	    if (!isTranslatable(d))
+		break;
+
+	    decoded[length++] = d;
+
+	    if (Lib.test(Mips.BRANCH, d.flags)) {
+		// the delay slot must be in the block too
+		Decoded slot = null;
+		if (a+4 < pageEnd && length < maxBlockLength) {
+		    slot = lookupDecoded(a+4,
+					 Lib.bytesToInt(mainMemory, a+4));
+		}
+		
+		if (slot == null || !isTranslatable(slot) ||
+		    Lib.test(Mips.BRANCH, slot.flags))
+		    length--;
+		else
+		    decoded[length++] = slot;
+		break;
+	    }
+	}
+
+	if (length < minBlockLength)
+	    return null;
+
+	Block block = new Block(paddr, length);
+	for (int i=0; i<length; i++) {
+	    block.words[i] = decoded[i].value;
+	    block.ops[i] = compile(decoded[i]);
+	}
+
+	Lib.debug(dbgProcessor, "\ttranslated block at paddr=0x" +
+		  Lib.toHexString(paddr) + ", length=" + length);
+	
+	return block;
+    }
+
+    private boolean isTranslatable(Decoded d) {
+	return (d.operation != Mips.SYSCALL &&
+		d.operation != Mips.UNIMPL &&
+		d.operation != Mips.INVALID);
+    }
+
+    /**
+     * Compile a decoded instruction into an operation with its operands
+     * bound. Common instructions get a dedicated operation; everything else
+     * is run through the interpreter without being fetched or decoded again.
+     *
+     * @param	d	the decoded instruction.
+     * @return	the operation that executes the instruction.
+     */
+    private Op compile(final Decoded d) {
+	final int rs = d.rs, rt = d.rt, rd = d.rd, sh = d.sh, imm = d.imm;
+	
+	switch (d.op) {
+	case 0:
+	    switch (d.func) {
+	    case 0x00:	// sll
+		return new Op() {
+			void run(Instruction inst) {
+			    writeBack(rd, registers[rt] << sh);
+			}
+		    };
+	    case 0x03:	// sra
+		return new Op() {
+			void run(Instruction inst) {
+			    writeBack(rd, registers[rt] >> sh);
+			}
+		    };
+	    case 0x08:	// jr
+		return new Op() {
+			void run(Instruction inst) {
+			    int target = registers[rs];
+			    finishLoad();
+			    advancePC(target);
+			}
+		    };
+	    case 0x21:	// addu
+		return new Op() {
+			void run(Instruction inst) {
+			    writeBack(rd, registers[rs] + registers[rt]);
+			}
+		    };
+	    case 0x23:	// subu
+		return new Op() {
+			void run(Instruction inst) {
+			    writeBack(rd, registers[rs] - registers[rt]);
+			}
+		    };
+	    case 0x24:	// and
+		return new Op() {
+			void run(Instruction inst) {
+			    writeBack(rd, registers[rs] & registers[rt]);
+			}
+		    };
+	    case 0x25:	// or
+		return new Op() {
+			void run(Instruction inst) {
+			    writeBack(rd, registers[rs] | registers[rt]);
+			}
+		    };
+	    case 0x26:	// xor
+		return new Op() {
+			void run(Instruction inst) {
+			    writeBack(rd, registers[rs] ^ registers[rt]);
+			}
+		    };
+	    }
+	    break;
+	case 0x02:	// j
+	    return new Op() {
+		    void run(Instruction inst) {
+			int target = (registers[regNextPC]&0xF0000000) |
+			    (d.target<<2);
+			finishLoad();
+			advancePC(target);
+		    }
+		};
+	case 0x03:	// jal
+	    return new Op() {
+		    void run(Instruction inst) {
+			int link = registers[regNextPC]+4;
+			int target = (registers[regNextPC]&0xF0000000) |
+			    (d.target<<2);
+			finishLoad();
+			registers[regRA] = link;
+			advancePC(target);
+		    }
+		};
+	case 0x04:	// beq
+	    return new Op() {
+		    void run(Instruction inst) {
+			int nextPC = registers[regNextPC];
+			if (registers[rs] == registers[rt])
+			    nextPC += imm<<2;
+			else
+			    nextPC += 4;
+			finishLoad();
+			advancePC(nextPC);
+		    }
+		};
+	case 0x05:	// bne
+	    return new Op() {
+		    void run(Instruction inst) {
+			int nextPC = registers[regNextPC];
+			if (registers[rs] != registers[rt])
+			    nextPC += imm<<2;
+			else
+			    nextPC += 4;
+			finishLoad();
+			advancePC(nextPC);
+		    }
+		};
+	case 0x09:	// addiu
+	    return new Op() {
+		    void run(Instruction inst) {
+			writeBack(rt, registers[rs] + imm);
+		    }
+		};
+	case 0x0C:	// andi
+	    return new Op() {
+		    void run(Instruction inst) {
+			writeBack(rt, registers[rs] & imm);
+		    }
+		};
+	case 0x0D:	// ori
+	    return new Op() {
+		    void run(Instruction inst) {
+			writeBack(rt, registers[rs] | imm);
+		    }
+		};
+	case 0x0F:	// lui
+	    return new Op() {
+		    void run(Instruction inst) {
+			writeBack(rt, imm << 16);
+		    }
+		};
+	case 0x23:	// lw
+	    return new Op() {
+		    void run(Instruction inst) throws MipsException {
+			int value = readMem(registers[rs] + imm, 4);
+			delayedLoad(rt, value, 0xFFFFFFFF);
+			advancePC(registers[regNextPC]+4);
+		    }
+		};
+	case 0x2B:	// sw
+	    return new Op() {
+		    void run(Instruction inst) throws MipsException {
+			writeMem(registers[rs] + imm, 4, registers[rt]);
+			finishLoad();
+			advancePC(registers[regNextPC]+4);
+		    }
+		};
+	}
+
+	return new Op() {
+		void run(Instruction inst) throws MipsException {
+		    inst.run(d);
+		}
+	    };
+    }
+
+    /**
+     * Complete the delayed load in progress, write the result of a
+     * non-branching instruction to its destination register, and advance the
+     * PC. Reads of source registers must happen before this is called, since
+     * the delayed load is not visible to the instruction that follows it.
+     *
+     * @param	dstReg	the destination register.
+     * @param	value	the result of the instruction.
+     */
+    private void writeBack(int dstReg, int value) {
+	finishLoad();
+
+	if (dstReg != 0)
+	    registers[dstReg] = value;
+
+	advancePC(registers[regNextPC]+4);
+    }
+
     /**
      * Read and return the contents of the specified CPU register.
      *
@@ -175,6 +500,7 @@ public final class Processor {
 	Lib.assertTrue(!usingTLB);
 
 	this.translations = pageTable;
+	epoch++;
     }
 
     /**
@@ -216,6 +542,8 @@ public final class Processor {
 	Lib.assertTrue(number >= 0 && number < tlbSize);
 
 	translations[number] = new TranslationEntry(entry);
+	rehashTLB();
+	epoch++;
     }
 
     /**
@@ -238,6 +566,56 @@ public final class Processor {
 	return mainMemory;
     }
 
+    /**
+     * Discard every predecoded instruction on the specified physical page.
+     * Called whenever the contents of the page are replaced wholesale, e.g.
+     * by <tt>CoffSection.loadPage()</tt>.
+     *
+     * @param	ppn	the physical page whose instructions are now stale.
+     */
+    void invalidatePage(int ppn) {
+	Lib.assertTrue(ppn >= 0 && ppn < numPhysPages);
+
+	decodeCache[ppn] = null;
+    }
+
+    /**
+     * Return the predecoded form of the instruction word <i>value</i>, which
+     * was fetched from physical address <i>paddr</i>. The word is decoded
+     * only if the cache has no entry for <i>paddr</i>, or if the cached entry
+     * was decoded from a different word (the kernel is free to write
+     * physical memory directly through <tt>getMemory()</tt>).
+     *
+     * @param	paddr	the physical address the instruction was fetched from.
+     * @param	value	the instruction word.
+     * @return	the decoded instruction.
+     */
+    private Decoded lookupDecoded(int paddr, int value) {
+	int ppn = paddr / pageSize;
+	
+	Decoded[] page = decodeCache[ppn];
+	if (page == null) {
+	    page = new Decoded[pageSize/4];
+	    decodeCache[ppn] = page;
+	}
+
+	int index = (paddr % pageSize) / 4;
+
+	Decoded decoded = page[index];
+	if (decoded == null) {
+	    decoded = new Decoded();
+	    page[index] = decoded;
+	}
+	else if (decoded.valid && decoded.value == value) {
+	    return decoded;
+	}
+
+	decoded.decode(value);
+	decoded.block = null;
+	decoded.hits = 0;
+	return decoded;
+    }
+
     /**
      * Concatenate a page number and an offset into an address.
      *
@@ -288,20 +666,18 @@ public final class Processor {
      *
      * @param	vaddr	the virtual address to translate.
      * @param	size	the size of the memory reference (must be 1, 2, or 4).
-     * @param	writing	<tt>true</tt> if the memory reference is a write.
+     * @param	access	the kind of memory reference: <tt>accessFetch</tt>,
+     *			<tt>accessRead</tt>, or <tt>accessWrite</tt>.
      * @return		the physical address.
      * @exception	MipsException	if a translation error occurred.
      */
-    private int translate(int vaddr, int size, boolean writing)
+    private int translate(int vaddr, int size, int access)
 	throws MipsException {
-	if (Lib.test(dbgProcessor))
-	    System.out.println("\ttranslate vaddr=0x" + Lib.toHexString(vaddr)
-			       + (writing ? ", write" : ", read..."));
+	boolean writing = (access == accessWrite);
 
 	// check alignment
 	if ((vaddr & (size-1)) != 0) {
-	    Lib.debug(dbgProcessor, "\t\talignment error");
-	    throw new MipsException(exceptionAddressError, vaddr);
+	    throw exception(exceptionAddressError, vaddr);
 	}
 
 	// calculate virtual page number and offset from the virtual address
@@ -316,38 +692,45 @@ public final class Processor {
 		translations[vpn] == null ||
 		!translations[vpn].valid) {
 		privilege.stats.numPageFaults++;
-		Lib.debug(dbgProcessor, "\t\tpage fault");
-		throw new MipsException(exceptionPageFault, vaddr);
+		throw exception(exceptionPageFault, vaddr);
 	    }
 
 	    entry = translations[vpn];
 	}
-	// else, look through all TLB entries for matching vpn
+	// else, look up the vpn in the TLB
 	else {
-	    for (int i=0; i<tlbSize; i++) {
-		if (translations[i].valid && translations[i].vpn == vpn) {
-		    entry = translations[i];
-		    break;
-		}
+	    // the last translation of this kind already passed the checks
+	    // below, and the entry cannot change until the next TLB write
+	    entry = lastEntry[access];
+	    if (entry != null && lastVPN[access] == vpn) {
+		entry.used = true;
+		if (writing)
+		    entry.dirty = true;
+
+		return (entry.ppn*pageSize) + offset;
 	    }
+
+	    entry = lookupTLB(vpn);
 	    if (entry == null) {
 		privilege.stats.numTLBMisses++;
-		Lib.debug(dbgProcessor, "\t\tTLB miss");
-		throw new MipsException(exceptionTLBMiss, vaddr);
+		throw exception(exceptionTLBMiss, vaddr);
 	    }
 	}
 
 	// check if trying to write a read-only page
 	if (entry.readOnly && writing) {
-	    Lib.debug(dbgProcessor, "\t\tread-only exception");
-	    throw new MipsException(exceptionReadOnly, vaddr);
+	    throw exception(exceptionReadOnly, vaddr);
 	}
 
 	// check if physical page number is out of range
 	int ppn = entry.ppn;
 	if (ppn < 0 || ppn >= numPhysPages) {
-	    Lib.debug(dbgProcessor, "\t\tbad ppn");
-	    throw new MipsException(exceptionBusError, vaddr);
+	    throw exception(exceptionBusError, vaddr);
+	}
+
+	if (usingTLB) {
+	    lastVPN[access] = vpn;
+	    lastEntry[access] = entry;
 	}
 
 	// set used and dirty bits as appropriate
@@ -355,11 +738,53 @@ public final class Processor {
 	if (writing)
 	    entry.dirty = true;
 
-	int paddr = (ppn*pageSize) + offset;
+	return (ppn*pageSize) + offset;
+    }
 
-	if (Lib.test(dbgProcessor))
-	    System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));	
-	return paddr;
+    /**
+     * Find the TLB entry that maps the specified virtual page. If several
+     * valid entries map it, returns the one with the lowest index.
+     *
+     * @param	vpn	the virtual page number.
+     * @return	the matching TLB entry, or <tt>null</tt> if there is none.
+     */
+    private TranslationEntry lookupTLB(int vpn) {
+	int mask = tlbHash.length - 1;
+
+	for (int i=vpn&mask; tlbHash[i] != 0; i=(i+1)&mask) {
+	    TranslationEntry entry = translations[tlbHash[i]-1];
+	    if (entry.vpn == vpn)
+		return entry;
+	}
+
+	return null;
+    }
+
+    /**
+     * Rebuild the TLB hash table after an entry was written, and forget the
+     * last translations, which may refer to the old entry.
+     */
+    private void rehashTLB() {
+	int mask = tlbHash.length - 1;
+
+	java.util.Arrays.fill(tlbHash, 0);
+	
+	for (int i=0; i<tlbSize; i++) {
+	    if (!translations[i].valid)
+		continue;
+
+	    int vpn = translations[i].vpn;
+	    int j = vpn&mask;
+	    while (tlbHash[j] != 0 && translations[tlbHash[j]-1].vpn != vpn)
+		j = (j+1)&mask;
+
+	    // keep the lowest-indexed entry for each vpn
+	    if (tlbHash[j] == 0)
+		tlbHash[j] = i+1;
+	}
+
+	for (int i=0; i<lastEntry.length; i++)
+	    lastEntry[i] = null;
     }
 
     /**
@@ -372,20 +797,10 @@ public final class Processor {
      * @exception	MipsException	if a translation error occurred.
      */
     private int readMem(int vaddr, int size) throws MipsException {
-	if (Lib.test(dbgProcessor))
-	    System.out.println("\treadMem vaddr=0x" + Lib.toHexString(vaddr)
-			       + ", size=" + size);
-
 	Lib.assertTrue(size==1 || size==2 || size==4);
 	
-	int value = Lib.bytesToInt(mainMemory, translate(vaddr, size, false),
-				   size);
-
-	if (Lib.test(dbgProcessor))
-	    System.out.println("\t\tvalue read=0x" +
-			       Lib.toHexString(value, size*2));
-	
-	return value;
+	return Lib.bytesToInt(mainMemory, translate(vaddr, size, accessRead),
+			      size);
     }
     
     /**
@@ -399,15 +814,30 @@ public final class Processor {
      */
     private void writeMem(int vaddr, int size, int value)
 	throws MipsException {
-	if (Lib.test(dbgProcessor))
-	    System.out.println("\twriteMem vaddr=0x" + Lib.toHexString(vaddr)
-			       + ", size=" + size + ", value=0x"
-			       + Lib.toHexString(value, size*2));
-
 	Lib.assertTrue(size==1 || size==2 || size==4);
-	
-	Lib.bytesFromInt(mainMemory, translate(vaddr, size, true), size,
-			 value);
+
+	storePhys(translate(vaddr, size, accessWrite), size, value);
+    }
+
+    /**
+     * Write <i>value</i> to </i>size</i> (1, 2, or 4) bytes of physical memory
+     * starting at <i>paddr</i>, the result of translating a store's virtual
+     * address.
+     *
+     * @param	paddr	the physical address to write to.
+     * @param	size	the number of bytes to write (1, 2, or 4).
+     * @param	value	the value to store.
+     */
+    private void storePhys(int paddr, int size, int value) {
+	Lib.bytesFromInt(mainMemory, paddr, size, value);
+
+	// the store may have overwritten a cached instruction
+	Decoded[] page = decodeCache[paddr / pageSize];
+	if (page != null) {
+	    if (page[(paddr % pageSize) / 4] != null)
+		page[(paddr % pageSize) / 4].valid = false;
+	    epoch++;
+	}
     }
 
     /**
@@ -540,7 +970,29 @@ public final class Processor {
     /** <tt>true</tt> if using a software-managed TLB. */
     private boolean usingTLB;
     /** Number of TLB entries. */
-    private int tlbSize = 4;
+    private int tlbSize;
+    /**
+     * Open-addressed hash of the TLB, indexed by virtual page number. Each
+     * slot holds one more than the index of a valid TLB entry, or 0 if it is
+     * empty.
+     */
+    private int[] tlbHash;
+    /**
+     * The virtual page number last translated through the TLB, for each kind
+     * of access.
+     */
+    private int[] lastVPN = new int[numAccessTypes];
+    /**
+     * The TLB entry used for the last translation of each kind of access, or
+     * <tt>null</tt> if the TLB has been written since.
+     */
+    private TranslationEntry[] lastEntry = new TranslationEntry[numAccessTypes];
+
+    /** Access types, used to index <tt>lastVPN</tt> and <tt>lastEntry</tt>. */
+    private static final int accessFetch = 0;
+    private static final int accessRead = 1;
+    private static final int accessWrite = 2;
+    private static final int numAccessTypes = 3;
     /**
      * Either an associative or direct-mapped set of translation entries,
      * depending on whether there is a TLB.
@@ -556,6 +1008,53 @@ public final class Processor {
     /** Main memory for user programs. */
     private byte[] mainMemory;
 
+    /**
+     * Predecoded instructions, indexed by physical page number and then by
+     * word within the page. A page's array is allocated the first time an
+     * instruction is fetched from it.
+     */
+    private Decoded[][] decodeCache;
+
+    /**
+     * <tt>true</tt> if a processor debug flag was set, and instructions
+     * should be traced.
+     */
+    private boolean tracing;
+    /** <tt>true</tt> if hot basic blocks should be translated. */
+    private boolean translating;
+    /**
+     * <tt>true</tt> if every translated instruction should be checked against
+     * the interpreter.
+     */
+    private boolean checkingTranslations;
+    /**
+     * Incremented whenever something happens that could invalidate the
+     * assumptions a translated block runs under: an interrupt or exception
+     * handler running (and so possibly switching threads or changing
+     * memory), a new page table or TLB entry, or a store to a page that holds
+     * code.
+     */
+    private long epoch = 0;
+    /** <tt>true</tt> if the last branch taken went to <tt>branchTarget</tt>. */
+    private boolean atBranchTarget = false;
+    /** The virtual address targeted by the last branch taken. */
+    private int branchTarget;
+
+    /** Number of times a branch target is reached before it is translated. */
+    private static final int hotThreshold = 32;
+    /** Blocks shorter than this are left to the interpreter. */
+    private static final int minBlockLength = 3;
+    /** The maximum number of instructions in a translated block. */
+    private static final int maxBlockLength = 64;
+
+    /** User ticks counted by <tt>tick()</tt> but not yet in the statistics. */
+    private long skippedTicks = 0;
+    /** The number of user ticks that can be counted before a real tick. */
+    private long skippableTicks = 0;
+
+    /** One reusable exception per cause, indexed by cause. */
+    private MipsException[] exceptions;
+
     /** The kernel exception handler, called on every user exception. */
     private Runnable exceptionHandler = null;
 
@@ -566,9 +1065,41 @@ public final class Processor {
     private class ProcessorPrivilege implements Privilege.ProcessorPrivilege {
 	public void flushPipe() {
 	    finishLoad();
+	    epoch++;
 	}
     }
 
+    /**
+     * Return the exception for the specified cause, ready to be thrown. The
+     * processor keeps one exception per cause and reuses it, so delivering a
+     * page fault or TLB miss does not allocate.
+     *
+     * @param	cause	the cause of the exception.
+     * @return	the exception to throw.
+     */
+    private MipsException exception(int cause) {
+	Lib.assertTrue(cause >= 0 && cause < exceptionNames.length);
+
+	MipsException e = exceptions[cause];
+	e.hasBadVAddr = false;
+	return e;
+    }
+
+    /**
+     * Return the exception for the specified cause, with the bad virtual
+     * address register to be set to <i>badVAddr</i>.
+     *
+     * @param	cause	the cause of the exception.
+     * @param	badVAddr	the virtual address that caused the exception.
+     * @return	the exception to throw.
+     */
+    private MipsException exception(int cause, int badVAddr) {
+	MipsException e = exception(cause);
+	e.hasBadVAddr = true;
+	e.badVAddr = badVAddr;
+	return e;
+    }
+
     private class MipsException extends Exception {
 	public MipsException(int cause) {
 	    Lib.assertTrue(cause >= 0 && cause < exceptionNames.length);
@@ -576,14 +1107,17 @@ public final class Processor {
 	    this.cause = cause;
 	}
 
-	public MipsException(int cause, int badVAddr) {
-	    this(cause);
-
-	    hasBadVAddr = true;
-	    this.badVAddr = badVAddr;
+	/**
+	 * These are only ever caught by the processor, so there is no point
+	 * in recording where they were thrown from.
+	 */
+	public Throwable fillInStackTrace() {
+	    return this;
 	}
 
 	public void handle() {
+	    flushTicks();
+	    
 	    writeRegister(regCause, cause);
 
 	    if (hasBadVAddr)
@@ -593,6 +1127,7 @@ public final class Processor {
 		System.out.println("exception: " + exceptionNames[cause]);
 
 	    finishLoad();
+	    epoch++;
 
 	    Lib.assertTrue(exceptionHandler != null);
 
@@ -616,73 +1151,81 @@ public final class Processor {
 	    writeBack();
 	}	
 
-	private boolean test(int flag) {
+	/**
+	 * Execute an instruction that has already been fetched and decoded.
+	 * Used by translated blocks for instructions they have no dedicated
+	 * operation for.
+	 */
+	public void run(Decoded decoded) throws MipsException {
+	    this.decoded = decoded;
+	    value = decoded.value;
+
+	    decode();
+	    execute();
+	    writeBack();
+	}
+
+	boolean test(int flag) {
 	    return Lib.test(flag, flags);
 	}
 
-	private void fetch() throws MipsException {
-	    if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) ||
-		Lib.test(dbgFullDisassemble))
-		System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
-				 + "\t");
+	/*
+	 * All memory accesses made by an instruction go through these three
+	 * methods, so that TracedInstruction can trace them. The processor
+	 * picks which kind of instruction to use once, in run(), so the
+	 * untraced path never tests a debug flag.
+	 */
+	
+	int translate(int vaddr, int size, int access)
+	    throws MipsException {
+	    return Processor.this.translate(vaddr, size, access);
+	}
 
-	    value = readMem(registers[regPC], 4);
+	int readMem(int vaddr, int size) throws MipsException {
+	    Lib.assertTrue(size==1 || size==2 || size==4);
+	    
+	    return Lib.bytesToInt(mainMemory, translate(vaddr, size, accessRead),
+				  size);
 	}
-	
-	private void decode() {
-	    op = Lib.extract(value, 26, 6);
-	    rs = Lib.extract(value, 21, 5);
-	    rt = Lib.extract(value, 16, 5);
-	    rd = Lib.extract(value, 11, 5);
-	    sh = Lib.extract(value, 6, 5);
-	    func = Lib.extract(value, 0, 6);
-	    target = Lib.extract(value, 0, 26);
-	    imm = Lib.extend(value, 0, 16);
 
-	    Mips info;
-	    switch (op) {
-	    case 0:
-		info = Mips.specialtable[func];
-		break;
-	    case 1:
-		info = Mips.regimmtable[rt];
-		break;
-	    default:
-		info = Mips.optable[op];
-		break;
-	    }
+	void writeMem(int vaddr, int size, int value) throws MipsException {
+	    Lib.assertTrue(size==1 || size==2 || size==4);
 
-	    operation = info.operation;
-	    name = info.name;
-	    format = info.format;
-	    flags = info.flags;
+	    storePhys(translate(vaddr, size, accessWrite), size, value);
+	}
+
+	void fetch() throws MipsException {
+	    int paddr = translate(registers[regPC], 4, accessFetch);
+	    value = Lib.bytesToInt(mainMemory, paddr);
+
+	    decoded = lookupDecoded(paddr, value);
+	}
+	
+	void decode() {
+	    // the fields that depend only on the instruction word
+	    op = decoded.op;
+	    rs = decoded.rs;
+	    rt = decoded.rt;
+	    rd = decoded.rd;
+	    sh = decoded.sh;
+	    func = decoded.func;
+	    target = decoded.target;
+	    imm = decoded.imm;
+
+	    operation = decoded.operation;
+	    name = decoded.name;
+	    format = decoded.format;
+	    flags = decoded.flags;
+
+	    size = decoded.size;
+	    dstReg = decoded.dstReg;
 
 	    mask = 0xFFFFFFFF;	
 	    branch = true;
-	
-	    // get memory access size
-	    if (test(Mips.SIZEB))
-		size = 1;
-	    else if (test(Mips.SIZEH))
-		size = 2;
-	    else if (test(Mips.SIZEW))
-		size = 4;
-	    else
-		size = 0;
 
 	    // get nextPC
 	    nextPC = registers[regNextPC]+4;
 
-	    // get dstReg
-	    if (test(Mips.DSTRA))
-		dstReg = regRA;
-	    else if (format == Mips.IFMT)
-		dstReg = rt;
-	    else if (format == Mips.RFMT)
-		dstReg = rd;
-	    else
-		dstReg = -1;
-
 	    // get jtarget
 	    if (format == Mips.RFMT)
 		jtarget = registers[rs];
@@ -693,11 +1236,6 @@ public final class Processor {
 	    else
 		jtarget = -1;
 
-	    // get imm
-	    if (test(Mips.UNSIGNED)) {
-		imm &= 0xFFFF;
-	    }
-
 	    // get addr
 	    addr = registers[rs] + imm;
 
@@ -717,12 +1255,9 @@ public final class Processor {
 		src1 &= 0xFFFFFFFFL;
 		src2 &= 0xFFFFFFFFL;
 	    }	    
-
-	    if (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble))
-		print();	    
 	}
 
-	private void print() {
+	void print() {
 	    if (Lib.test(dbgDisassemble) && Lib.test(dbgProcessor) &&
 		!Lib.test(dbgFullDisassemble))
 		System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
@@ -845,7 +1380,7 @@ public final class Processor {
 		System.out.print("\n");
 	}
 
-	private void execute() throws MipsException {
+	void execute() throws MipsException {
 	    int value;
 	    int preserved;
 	    
@@ -869,7 +1404,7 @@ public final class Processor {
 			throw new ArithmeticException();
 		}
 		catch (ArithmeticException e) {
-		    throw new MipsException(exceptionOverflow);
+		    throw exception(exceptionOverflow);
 		}
 		break;
 
@@ -939,7 +1474,7 @@ public final class Processor {
 		break;
 
 	    case Mips.SYSCALL:
-		throw new MipsException(exceptionSyscall);
+		throw exception(exceptionSyscall);
 
 	    case Mips.LOAD:
 		value = readMem(addr, size);
@@ -1009,17 +1544,17 @@ public final class Processor {
 		System.err.println("Warning: encountered unimplemented inst");
 		
 	    case Mips.INVALID:
-		throw new MipsException(exceptionIllegalInstruction);
+		throw exception(exceptionIllegalInstruction);
 
 	    default:
 		Lib.assertNotReached();
 	    }
 	}
 
-	private void writeBack() throws MipsException {
+	void writeBack() throws MipsException {
 	    // if instruction is signed, but carry bit !+ sign bit, throw
 	    if (test(Mips.OVERFLOW) && Lib.test(dst,31) != Lib.test(dst,32))
-		throw new MipsException(exceptionOverflow);
+		throw exception(exceptionOverflow);
 
 	    if (test(Mips.DELAYEDLOAD))
 		delayedLoad(dstReg, (int) dst, mask);
@@ -1032,26 +1567,18 @@ public final class Processor {
 	    if (test(Mips.DST) && dstReg != 0)
 		registers[dstReg] = (int) dst;
 
-	    if ((test(Mips.DST) || test(Mips.DELAYEDLOAD)) && dstReg != 0) {
-		if (Lib.test(dbgFullDisassemble)) {
-		    System.out.print("#0x" + Lib.toHexString((int) dst));
-		    if (test(Mips.DELAYEDLOAD))
-			System.out.print(" (delayed load)");
-		}
-	    }
-
 	    if (test(Mips.BRANCH) && branch) {
 		nextPC = jtarget;
+
+		atBranchTarget = true;
+		branchTarget = jtarget;
 	    }
 
 	    advancePC(nextPC);
-
-	    if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) ||
-		Lib.test(dbgFullDisassemble))
-		System.out.print("\n");
 	}
     
 	// state used to execute a single instruction
+	Decoded decoded;
 	int value, op, rs, rt, rd, sh, func, target, imm;
 	int operation, format, flags;
 	String name;
@@ -1063,6 +1590,317 @@ public final class Processor {
 	boolean branch;
     }
 
+    /**
+     * An instruction that prints what it does, as selected by the
+     * <tt>p</tt>, <tt>m</tt> and <tt>M</tt> debug flags. Only used if one of
+     * those flags was set when the processor was created.
+     */
+    private class TracedInstruction extends Instruction {
+	int translate(int vaddr, int size, int access)
+	    throws MipsException {
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\ttranslate vaddr=0x" +
+				   Lib.toHexString(vaddr) +
+				   (access == accessWrite ?
+				    ", write" : ", read..."));
+
+	    int paddr;
+	    try {
+		paddr = super.translate(vaddr, size, access);
+	    }
+	    catch (MipsException e) {
+		Lib.debug(dbgProcessor, "\t\t" + translationErrors[e.cause]);
+		throw e;
+	    }
+
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\t\tpaddr=0x" + Lib.toHexString(paddr));
+	    return paddr;
+	}
+
+	int readMem(int vaddr, int size) throws MipsException {
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\treadMem vaddr=0x" +
+				   Lib.toHexString(vaddr) + ", size=" + size);
+
+	    int value = super.readMem(vaddr, size);
+
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\t\tvalue read=0x" +
+				   Lib.toHexString(value, size*2));
+
+	    return value;
+	}
+
+	void writeMem(int vaddr, int size, int value) throws MipsException {
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\twriteMem vaddr=0x" +
+				   Lib.toHexString(vaddr) + ", size=" + size +
+				   ", value=0x" +
+				   Lib.toHexString(value, size*2));
+
+	    super.writeMem(vaddr, size, value);
+	}
+
+	void fetch() throws MipsException {
+	    if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) ||
+		Lib.test(dbgFullDisassemble))
+		System.out.print("PC=0x" + Lib.toHexString(registers[regPC])
+				 + "\t");
+
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\treadMem vaddr=0x" +
+				   Lib.toHexString(registers[regPC]) +
+				   ", size=4");
+
+	    super.fetch();
+
+	    if (Lib.test(dbgProcessor))
+		System.out.println("\t\tvalue read=0x" +
+				   Lib.toHexString(value, 8));
+	}
+
+	void decode() {
+	    super.decode();
+
+	    if (Lib.test(dbgDisassemble) || Lib.test(dbgFullDisassemble))
+		print();	    
+	}
+
+	void writeBack() throws MipsException {
+	    super.writeBack();
+
+	    if ((test(Mips.DST) || test(Mips.DELAYEDLOAD)) && dstReg != 0) {
+		if (Lib.test(dbgFullDisassemble)) {
+		    System.out.print("#0x" + Lib.toHexString((int) dst));
+		    if (test(Mips.DELAYEDLOAD))
+			System.out.print(" (delayed load)");
+		}
+	    }
+
+	    if ((Lib.test(dbgDisassemble) && !Lib.test(dbgProcessor)) ||
+		Lib.test(dbgFullDisassemble))
+		System.out.print("\n");
+	}
+    }
+
+    /** What the <tt>p</tt> debug flag prints for each translation error. */
+    private static final String translationErrors[] = {
+	null,
+	"page fault",
+	"TLB miss",
+	"read-only exception",
+	"bad ppn",
+	"alignment error",
+	null,
+	null
+    };
+
+    /**
+     * The parts of a decoded instruction that depend only on the instruction
+     * word, and not on the contents of any register.
+     */
+    private static class Decoded {
+	void decode(int value) {
+	    this.value = value;
+	    
+	    op = Lib.extract(value, 26, 6);
+	    rs = Lib.extract(value, 21, 5);
+	    rt = Lib.extract(value, 16, 5);
+	    rd = Lib.extract(value, 11, 5);
+	    sh = Lib.extract(value, 6, 5);
+	    func = Lib.extract(value, 0, 6);
+	    target = Lib.extract(value, 0, 26);
+	    imm = Lib.extend(value, 0, 16);
+
+	    Mips info;
+	    switch (op) {
+	    case 0:
+		info = Mips.specialtable[func];
+		break;
+	    case 1:
+		info = Mips.regimmtable[rt];
+		break;
+	    default:
+		info = Mips.optable[op];
+		break;
+	    }
+
+	    operation = info.operation;
+	    name = info.name;
+	    format = info.format;
+	    flags = info.flags;
+
+	    // get memory access size
+	    if (Lib.test(Mips.SIZEB, flags))
+		size = 1;
+	    else if (Lib.test(Mips.SIZEH, flags))
+		size = 2;
+	    else if (Lib.test(Mips.SIZEW, flags))
+		size = 4;
+	    else
+		size = 0;
+
+	    // get dstReg
+	    if (Lib.test(Mips.DSTRA, flags))
+		dstReg = regRA;
+	    else if (format == Mips.IFMT)
+		dstReg = rt;
+	    else if (format == Mips.RFMT)
+		dstReg = rd;
+	    else
+		dstReg = -1;
+
+	    // get imm
+	    if (Lib.test(Mips.UNSIGNED, flags))
+		imm &= 0xFFFF;
+
+	    valid = true;
+	}
+
+	/** <tt>false</tt> if a store may have overwritten this instruction. */
+	boolean valid = false;
+
+	int value, op, rs, rt, rd, sh, func, target, imm;
+	int operation, format, flags;
+	String name;
+	int size, dstReg;
+
+	/**
+	 * The number of times this instruction was reached by a branch, if it
+	 * has not been translated yet.
+	 */
+	int hits = 0;
+	/** The translated block starting at this instruction, if any. */
+	Block block = null;
+    }
+
+    /**
+     * An instruction compiled for a translated block, with its operands bound
+     * at translation time.
+     */
+    private abstract class Op {
+	abstract void run(Instruction inst) throws MipsException;
+    }
+
+    /**
+     * A translated basic block. A block is entered at its first instruction
+     * and executes each of its operations in order, advancing the simulated
+     * time in between just like the interpreter does. It falls back to the
+     * interpreter as soon as the epoch changes or the PC leaves the block.
+     */
+    private class Block {
+	Block(int paddr, int length) {
+	    this.paddr = paddr;
+	    words = new int[length];
+	    ops = new Op[length];
+	    validEpoch = epoch;
+	}
+
+	/**
+	 * Check that the instructions this block was translated from are still
+	 * in memory. Only needs to compare them if the epoch has changed since
+	 * the last check.
+	 *
+	 * @return	<tt>true</tt> if this block can be run.
+	 */
+	boolean validate() {
+	    if (validEpoch == epoch)
+		return true;
+
+	    for (int i=0; i<words.length; i++) {
+		if (Lib.bytesToInt(mainMemory, paddr + i*4) != words[i])
+		    return false;
+	    }
+
+	    validEpoch = epoch;
+	    return true;
+	}
+
+	/**
+	 * Run this block, starting at the current PC. Advances the simulated
+	 * time after every instruction but the last, which is left to the
+	 * caller.
+	 *
+	 * @param	inst	the interpreter, for falling back and checking.
+	 * @exception	MipsException	if an instruction caused an exception.
+	 */
+	void run(Instruction inst) throws MipsException {
+	    int startPC = registers[regPC];
+
+	    for (int i=0; ; ) {
+		if (checkingTranslations)
+		    check(ops[i], inst);
+		else
+		    ops[i].run(inst);
+
+		if (++i == ops.length)
+		    break;
+
+		long startEpoch = epoch;
+		tick();
+
+		// the time for the next instruction has already been spent
+		if (epoch != startEpoch || registers[regPC] != startPC + i*4) {
+		    inst.run();
+		    break;
+		}
+	    }
+
+	    atBranchTarget = true;
+	    branchTarget = registers[regPC];
+	}
+
+	/**
+	 * Run the interpreter on the next instruction, roll the registers back,
+	 * run the translated operation, and make sure the two agree.
+	 */
+	private void check(Op op, Instruction inst) throws MipsException {
+	    int[] before = registers.clone();
+	    int beforeTarget = loadTarget, beforeValue = loadValue,
+		beforeMask = loadMask;
+
+	    try {
+		inst.run();
+	    }
+	    catch (MipsException e) {
+		System.arraycopy(before, 0, registers, 0, numUserRegisters);
+		loadTarget = beforeTarget;
+		loadValue = beforeValue;
+		loadMask = beforeMask;
+		throw e;
+	    }
+
+	    int[] expected = registers.clone();
+	    int expectedTarget = loadTarget, expectedValue = loadValue,
+		expectedMask = loadMask;
+
+	    System.arraycopy(before, 0, registers, 0, numUserRegisters);
+	    loadTarget = beforeTarget;
+	    loadValue = beforeValue;
+	    loadMask = beforeMask;
+
+	    op.run(inst);
+
+	    boolean same = java.util.Arrays.equals(registers, expected) &&
+		loadTarget == expectedTarget;
+	    if (same && loadTarget != 0) {
+		same = (loadValue == expectedValue && loadMask == expectedMask);
+	    }
+	    
+	    if (!same) {
+		Lib.assertNotReached("translated instruction at PC=0x" +
+				     Lib.toHexString(before[regPC]) +
+				     " disagrees with the interpreter");
+	    }
+	}
+
+	int paddr;
+	int[] words;
+	Op[] ops;
+	long validEpoch;
+    }
+
     private static class Mips {
 	Mips() {
 	}
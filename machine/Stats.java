@@ -21,6 +21,7 @@ public final class Stats {
 	System.out.println("Ticks: total " + totalTicks
 			   + ", kernel " + kernelTicks
 			   + ", user " + userTicks);
+	System.out.println("Idle: ticks skipped " + idleTicksSkipped);
 	System.out.println("Disk I/O: reads " + numDiskReads
 			   + ", writes " + numDiskWrites);
 	System.out.println("Console I/O: reads " + numConsoleReads
@@ -29,6 +30,7 @@ public final class Stats {
 			   + ", TLB misses " + numTLBMisses);
 	System.out.println("Network I/O: received " + numPacketsReceived
 			   + ", sent " + numPacketsSent);
+	System.out.println("Real-time: deadline misses " + numDeadlineMisses);
     }
 
     /**
@@ -44,6 +46,12 @@ public final class Stats {
      * The total amount of simulated time that Nachos has spent in user mode.
      */
     public long userTicks = 0;
+    /**
+     * The amount of kernel time the idle thread skipped over, waiting for an
+     * interrupt, instead of spinning through it. Included in
+     * <tt>kernelTicks</tt>.
+     */
+    public long idleTicksSkipped = 0;
 
     /** The total number of sectors Nachos has read from the simulated disk.*/
     public int numDiskReads = 0;
@@ -61,6 +69,8 @@ public final class Stats {
     public int numPacketsSent = 0;
     /** The total number of packets Nachos has received from the network. */
     public int numPacketsReceived = 0;
+    /** The total number of deadlines real-time threads have missed. */
+    public int numDeadlineMisses = 0;
 
     /**
      * The amount to advance simulated time after each user instructions is
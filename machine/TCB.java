@@ -6,6 +6,8 @@ import nachos.security.*;
 import nachos.threads.KThread;
 
 import java.util.Vector;
+import java.util.concurrent.locks.LockSupport;
+import java.lang.reflect.Method;
 import java.security.PrivilegedAction;
 
 /**
@@ -14,6 +16,13 @@ import java.security.PrivilegedAction;
  * object.
  *
  * <p>
+ * If <tt>TCB.virtualThreads</tt> is set in the configuration, the JVM threads
+ * are virtual threads (Java 21 and later), which are much cheaper to create
+ * and switch between than platform threads. The number of TCBs that may exist
+ * at once is limited to <tt>TCB.maxThreads</tt>; by default there is no limit
+ * with virtual threads, and a limit of <tt>maxThreads</tt> otherwise.
+ *
+ * <p>
  * Do not use any methods in <tt>java.lang.Thread</tt>, as they are not
  * compatible with the TCB API. Most <tt>Thread</tt> methods will either crash
  * Nachos or have no useful effect.
@@ -40,6 +49,99 @@ public final class TCB {
     public static void givePrivilege(Privilege privilege) {
 	TCB.privilege = privilege;
 	privilege.tcb = new TCBPrivilege();
+
+	if (Config.getBoolean("TCB.virtualThreads", false))
+	    findVirtualThreads();
+
+	threadLimit =
+	    Config.getInteger("TCB.maxThreads",
+			      (virtualThreadBuilder != null) ?
+			      Integer.MAX_VALUE : maxThreads);
+	Lib.assertTrue(threadLimit > 0, "TCB.maxThreads must be positive");
+    }
+
+    /**
+     * Return the number of TCBs that may be started and not yet destroyed at
+     * once.
+     *
+     * @return	<tt>TCB.maxThreads</tt> if it is set, and otherwise the
+     *		default for the backend in use.
+     */
+    public static int getThreadLimit() {
+	return threadLimit;
+    }
+
+    /**
+     * Test whether TCBs run on virtual threads rather than platform threads.
+     *
+     * @return	<tt>true</tt> if the JVM threads are virtual threads.
+     */
+    public static boolean usesVirtualThreads() {
+	return virtualThreadBuilder != null;
+    }
+
+    /**
+     * Look up <tt>Thread.ofVirtual()</tt> and
+     * <tt>Thread.Builder.unstarted()</tt>, which only exist in Java 21 and
+     * later. Done before the security manager is enabled.
+     *
+     * <p>
+     * Only one TCB runs at a time, so the JVM's virtual thread scheduler is
+     * limited to a single carrier thread, which is started here by running a
+     * virtual thread to completion. Starting a carrier thread needs
+     * permissions that the security manager denies to Nachos threads, so the
+     * JVM must not start one later on their behalf. See
+     * <tt>start(Runnable)</tt> for how the carrier is kept from timing out.
+     */
+    private static void findVirtualThreads() {
+	System.setProperty("jdk.virtualThreadScheduler.parallelism", "1");
+	System.setProperty("jdk.virtualThreadScheduler.maxPoolSize", "1");
+
+	try {
+	    virtualThreadBuilder =
+		Thread.class.getMethod("ofVirtual").invoke(null);
+	    newVirtualThread =
+		Class.forName("java.lang.Thread$Builder")
+		.getMethod("unstarted", Runnable.class);
+	}
+	catch (Exception e) {
+	    Lib.assertNotReached("TCB.virtualThreads requires Java 21 or later");
+	}
+
+	Thread warmup = newThread(new Runnable() {
+		public void run() { }
+	    });
+	warmup.start();
+	joinThread(warmup);
+    }
+
+    /**
+     * Wait for the specified JVM thread to finish.
+     */
+    private static void joinThread(Thread thread) {
+	try {
+	    thread.join();
+	}
+	catch (InterruptedException e) {
+	    Lib.assertNotReached();
+	}
+    }
+
+    /**
+     * Create an unstarted JVM thread to run the specified target. Must be
+     * called with privilege.
+     */
+    private static Thread newThread(Runnable target) {
+	if (virtualThreadBuilder == null)
+	    return new Thread(target);
+
+	try {
+	    return (Thread) newVirtualThread.invoke(virtualThreadBuilder,
+						    target);
+	}
+	catch (Exception e) {
+	    throw new RuntimeException(e);
+	}
     }
     
     /**
@@ -66,7 +168,7 @@ public final class TCB {
 	/* Make sure there aren't too many running TCBs already. This
 	 * limitation exists in an effort to prevent wild thread usage.
 	 */
-	Lib.assertTrue(runningThreads.size() < maxThreads);
+	Lib.assertTrue(runningThreads.size() < threadLimit);
 
 	isFirstTCB = (currentTCB == null);
 
@@ -94,7 +196,7 @@ public final class TCB {
 		};
 
 	    privilege.doPrivileged(new Runnable() {
-		    public void run() { javaThread = new Thread(tcbTarget); }
+		    public void run() { javaThread = newThread(tcbTarget); }
 		});
 
 	    /* The Java thread hasn't yet started, but we need to get it
@@ -108,6 +210,23 @@ public final class TCB {
 	    this.javaThread.start();
 	    currentTCB.waitForInterrupt();
 	}
+	else if (virtualThreadBuilder != null) {
+	    /* This is the first TCB, but it runs on a virtual thread like the
+	     * others. That way some TCB is always mounted on the carrier
+	     * thread, which would otherwise be dropped after a while of no use
+	     * and have to be started again from a Nachos thread. The current
+	     * Java thread is not a Nachos thread, so it may create threads.
+	     * Virtual threads are daemon threads, so it then waits for Nachos
+	     * to exit.
+	     */
+	    tcbTarget = new Runnable() {
+		    public void run() { threadroot(); }
+		};
+
+	    javaThread = newThread(tcbTarget);
+	    javaThread.start();
+	    joinThread(javaThread);
+	}
 	else {
 	    /* This is the first TCB, so we don't need to make a new Java
 	     * thread to run it; we just steal the current Java thread.
@@ -280,29 +399,33 @@ public final class TCB {
     }
 
     /**
-     * Waits on the monitor bound to this TCB until its <tt>running</tt> flag
+     * Parks the Java thread bound to this TCB until its <tt>running</tt> flag
      * is set to <tt>true</tt>. <tt>waitForInterrupt()</tt> is used whenever a
      * TCB needs to go to wait for its turn to run. This includes the ping-pong
      * process of starting and destroying TCBs, as well as in context switching
      * from this TCB to another. We don't rely on <tt>currentTCB</tt>, since it
      * is updated by <tt>contextSwitch()</tt> before we get called.
+     *
+     * <p>
+     * Parking rather than waiting on a monitor lets a virtual thread give up
+     * its carrier thread while it waits. <tt>park()</tt> may return early, so
+     * the flag is checked again each time.
      */
-    private synchronized void waitForInterrupt() {
-	while (!running) {
-	    try { wait(); }
-	    catch (InterruptedException e) { }
-	}
+    private void waitForInterrupt() {
+	while (!running)
+	    LockSupport.park(this);
     }
 
     /**
      * Wake up this TCB by setting its <tt>running</tt> flag to <tt>true</tt>
-     * and signalling the monitor bound to it. Used in the ping-pong process of
+     * and unparking its Java thread. Used in the ping-pong process of
      * starting and destroying TCBs, as well as in context switching to this
-     * TCB.
+     * TCB. If the thread has not parked yet, its next <tt>park()</tt> returns
+     * immediately.
      */
-    private synchronized void interrupt() {
+    private void interrupt() {
 	running = true;
-	notify();
+	LockSupport.unpark(javaThread);
     }
 
     private void associateThread(KThread thread) {
@@ -328,10 +451,21 @@ public final class TCB {
 
     /**
      * The maximum number of started, non-destroyed TCB's that can be in
-     * existence.
+     * existence, unless <tt>TCB.maxThreads</tt> or
+     * <tt>TCB.virtualThreads</tt> is set.
      */
     public static final int maxThreads = 250;
 
+    /** The maximum number of TCB's actually allowed. */
+    private static int threadLimit = maxThreads;
+    /**
+     * A <tt>Thread.Builder</tt> for virtual threads, or <tt>null</tt> if TCBs
+     * use platform threads.
+     */
+    private static Object virtualThreadBuilder = null;
+    /** <tt>Thread.Builder.unstarted(Runnable)</tt>. */
+    private static Method newVirtualThread = null;
+
     /**
      * A reference to the currently running TCB. It is initialized to
      * <tt>null</tt> when the <tt>TCB</tt> class is loaded, and then the first
@@ -354,7 +488,7 @@ public final class TCB {
      * on each TCB object. TCB objects are removed only in each of the
      * <tt>catch</tt> clauses of <tt>threadroot()</tt>, one of which is always
      * invoked on thread termination. The maximum number of threads in
-     * <tt>runningThreads</tt> is limited to <tt>maxThreads</tt> by
+     * <tt>runningThreads</tt> is limited to <tt>threadLimit</tt> by
      * <tt>start(Runnable)</tt>. If <tt>threadroot()</tt> drops the number of
      * TCB objects in <tt>runningThreads</tt> to zero, Nachos exits, so once
      * the first TCB is created, this vector is basically never empty.
@@ -386,9 +520,10 @@ public final class TCB {
      * started and have not terminated. <tt>running</tt> is only <tt>true</tt>
      * when the associated Java thread ought to run ASAP. When starting or
      * destroying a TCB, this is temporarily true for a thread other than that
-     * of the current TCB.
+     * of the current TCB. Volatile, since it is set by one Java thread and
+     * read by another without a lock.
      */
-    private boolean running = false;
+    private volatile boolean running = false;
 
     /**
      * Set to <tt>true</tt> by <tt>destroy()</tt>, so that when
@@ -37,6 +37,10 @@ public final class Timer {
 		}
 	    };
 
+	alarmInterrupt = new Runnable() {
+		public void run() { alarmInterrupt(); }
+	    };
+
 	scheduleInterrupt();
     }
 
@@ -50,6 +54,38 @@ public final class Timer {
 	this.handler = handler;
     }
 
+    /**
+     * Set the callback to use as the alarm interrupt handler, which is called
+     * when a time requested with <tt>setAlarm()</tt> arrives.
+     *
+     * @param	handler		the alarm interrupt handler.
+     */
+    public void setAlarmHandler(Runnable handler) {
+	this.alarmHandler = handler;
+    }
+
+    /**
+     * Request a one-shot alarm interrupt at the specified time, or on the
+     * next tick if that time has passed. If an alarm is already pending for
+     * the same time or earlier, this does nothing, so the alarm handler should
+     * request the next time it needs when it runs. The handler may also be
+     * called when a request it superseded comes due.
+     *
+     * @param	time	when to interrupt, in clock ticks since Nachos
+     *			started.
+     */
+    public void setAlarm(long time) {
+	long now = getTime();
+	if (time <= now)
+	    time = now+1;
+
+	if (time >= alarmTime)
+	    return;
+
+	alarmTime = time;
+	privilege.interrupt.schedule(time-now, "alarm", alarmInterrupt);
+    }
+
     /**
      * Get the current time.
      *
@@ -69,6 +105,14 @@ public final class Timer {
 	    handler.run();
     }
 
+    private void alarmInterrupt() {
+	if (getTime() >= alarmTime)
+	    alarmTime = Long.MAX_VALUE;
+
+	if (alarmHandler != null)
+	    alarmHandler.run();
+    }
+
     private void scheduleInterrupt() {
 	int delay = Stats.TimerTicks;
 	delay += Lib.random(delay/10) - (delay/20);
@@ -86,4 +130,9 @@ public final class Timer {
 
     private Privilege privilege;
     private Runnable handler = null;
+
+    private Runnable alarmInterrupt;
+    private Runnable alarmHandler = null;
+    /** The earliest alarm pending, or <tt>Long.MAX_VALUE</tt> if none is. */
+    private long alarmTime = Long.MAX_VALUE;
 }
@@ -14,6 +14,13 @@ import nachos.threads.*;
  * from the network and to place them in the appropriate queues. This cannot
  * be done in the receive interrupt handler because each queue (implemented
  * with a <tt>SynchList</tt>) is protected by a lock.
+ *
+ * <p>
+ * By default the queues have no limit, and no mail that arrives is lost. If
+ * <tt>PostOffice.queueCapacity</tt> is set above 0, each queue holds at most
+ * that many messages, and mail for a port whose queue is full is dropped, as
+ * if the network had lost it, rather than holding up delivery to every other
+ * port.
  */
 public class PostOffice {
     /**
@@ -26,9 +33,15 @@ public class PostOffice {
 	messageSent = new Semaphore(0);
 	sendLock = new Lock();
 
+	int queueCapacity = Config.getInteger("PostOffice.queueCapacity", 0);
+
 	queues = new SynchList[MailMessage.portLimit];
-	for (int i=0; i<queues.length; i++)
-	    queues[i] = new SynchList();
+	for (int i=0; i<queues.length; i++) {
+	    if (queueCapacity > 0)
+		queues[i] = new SynchList(queueCapacity);
+	    else
+		queues[i] = new SynchList();
+	}
 
 	Runnable receiveHandler = new Runnable() {
 	    public void run() { receiveInterrupt(); }
@@ -47,7 +60,10 @@ public class PostOffice {
     }
 
     /**
-     * Retrieve a message on the specified port, waiting if necessary.
+     * Retrieve a message on the specified port, waiting if necessary. If
+     * <tt>PostOffice.queueCapacity</tt> is set, mail that arrives while the
+     * port already holds that many messages is dropped, so a protocol that
+     * cannot afford to lose mail must keep receiving on its ports.
      *
      * @param	port	the port on which to wait for a message.
      *
@@ -88,8 +104,11 @@ public class PostOffice {
 		System.out.println("delivering mail to port " + mail.dstPort
 				   + ": " + mail);
 
-	    // atomically add message to the mailbox and wake a waiting thread
-	    queues[mail.dstPort].add(mail);
+	    // atomically add message to the mailbox and wake a waiting thread,
+	    // or drop it if the mailbox is full
+	    if (!queues[mail.dstPort].offer(mail))
+		Lib.debug(dbgNet, "mailbox full, dropping mail to port "
+			  + mail.dstPort);
 	}
     }
 
@@ -158,6 +158,25 @@ public abstract class Privilege {
 	 *		MIPS user code.
 	 */
 	public void tick(boolean inKernelMode);
+
+	/**
+	 * Return the number of user-mode ticks that can pass before one of
+	 * them would invoke an interrupt handler, assuming no interrupt is
+	 * scheduled in the meantime.
+	 *
+	 * @return	the number of user ticks that can be skipped.
+	 */
+	public long skippableUserTicks();
+
+	/**
+	 * Advance the simulated time by the specified number of user-mode
+	 * ticks at once, without checking for interrupts. This has the same
+	 * effect as calling <tt>tick(false)</tt> that many times, provided
+	 * <i>count</i> does not exceed <tt>skippableUserTicks()</tt>.
+	 *
+	 * @param	count	the number of user ticks to skip.
+	 */
+	public void skipUserTicks(long count);
     }
 
     /**
@@ -0,0 +1,45 @@
+/* faultstorm.c
+ *    Test program that touches one word on each of many pages, over and
+ *    over, so that nearly every memory reference misses in the TLB.
+ *
+ *    Intended to stress exception delivery in the processor and the
+ *    kernel's TLB miss and page fault handlers. Run it with
+ *    Processor.usingTLB set, and compare the elapsed ticks and the
+ *    "Paging:" statistics printed at halt. Should return 0.
+ *
+ *    Needs a kernel that handles TLB misses: until VMProcess does, the
+ *    first miss kills it, so it is left out of TARGETS in the Makefile.
+ *    nachos.vm.TLBMissTest measures the processor's side of the miss path
+ *    without a user program.
+ */
+
+#include "syscall.h"
+
+#define PageWords	256	/* 1KB pages */
+#define Pages		48	/* several times the 16 physical pages */
+#define Passes		50
+
+int A[Pages*PageWords];
+
+int
+main()
+{
+    int pass, page, sum;
+
+    for (page = 0; page < Pages; page++)	/* one word per page */
+	A[page*PageWords] = page;
+
+    sum = 0;
+    for (pass = 0; pass < Passes; pass++)	/* then touch them again */
+	for (page = 0; page < Pages; page++) {
+	    sum += A[page*PageWords];
+	    A[page*PageWords] = page + pass + 1;
+	}
+
+    /* each pass adds 0+1+...+(Pages-1) plus Pages*pass */
+    sum -= Passes*(Pages*(Pages-1)/2) + Pages*(Passes*(Passes-1)/2);
+
+    printf("faultstorm: %d pages touched, checksum %d\n",
+	   Passes*Pages, sum);
+    return sum;
+}
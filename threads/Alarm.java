@@ -1,5 +1,5 @@
 package nachos.threads;
-import java.util.ArrayList;
+import java.util.HashMap;
 import nachos.machine.*;
 /**
  * Uses the hardware timer to provide preemption, and to allow threads to sleep
@@ -13,46 +13,63 @@ public class Alarm {
   * <p><b>Note</b>: Nachos will not function correctly with more than one
   * alarm.
   */
-  
+
   public Alarm() {
 	Machine.timer().setInterruptHandler(new Runnable() {
 		public void run() { timerInterrupt(); }
 	  });
+	Machine.timer().setAlarmHandler(new Runnable() {
+		public void run() { alarmInterrupt(); }
+	  });
   }
 
   /**
    * The timer interrupt handler. This is called by the machine's timer
    * periodically (approximately every 500 clock ticks). Causes the current
    * thread to yield, forcing a context switch if there is another thread
-   * that should be run.
+   * that should be run, unless the scheduler says its time slice is not
+   * over yet.
    */
   public void timerInterrupt() {
     Lib.debug(dbgAlarm,"In Interrupt Handler (time = "+Machine.timer().getTime()+")");
-    //go through list of alarmThreads
-    for(int i=alarmList.size()-1;i>=0;i--){
-
-      //if alarmThread wait time is expired
-      if(alarmList.get(i).getWakeTime()<=Machine.timer().getTime()){
-        
-        //put the thread in the ready state and ready queue
-        boolean status = Machine.interrupt().disable();
-        alarmList.get(i).getThread().ready();
-        
-        //remove alarm thread from list and keep dec counter 
-        //so after loop finishes, counter will inc and will be the same
-        //when remove() is called, the elements are shifted left
-        alarmList.remove(i);
-        Machine.interrupt().restore(status);
-      }
+    boolean status = Machine.interrupt().disable();
+    boolean preempt = ThreadedKernel.scheduler.timerInterrupt();
+    Machine.interrupt().restore(status);
+    if (preempt)
+      KThread.currentThread().yield();
+  }
+
+  /**
+   * The alarm interrupt handler, called by the machine's timer at the wake
+   * time of the earliest sleeper. Wakes every thread whose time has come,
+   * asks for an interrupt at the next wake time, and yields so that the
+   * scheduler can run a woken thread.
+   */
+  public void alarmInterrupt() {
+    long now = Machine.timer().getTime();
+    Lib.debug(dbgAlarm,"In Alarm Handler (time = "+now+")");
+
+    boolean status = Machine.interrupt().disable();
+    boolean woke = false;
+    while (size > 0 && heap[0].wakeTime <= now) {
+      Sleeper sleeper = heap[0];
+      remove(sleeper);
+      sleeper.thread.ready();
+      woke = true;
     }
-    KThread.currentThread().yield();
+    if (size > 0)
+      Machine.timer().setAlarm(heap[0].wakeTime);
+    Machine.interrupt().restore(status);
+
+    if (woke)
+      KThread.yield();
   }
 
   /**
    * Put the current thread to sleep for at least <i>x</i> ticks,
-   * waking it up in the timer interrupt handler. The thread must be
-   * woken up (placed in the scheduler ready set) during the first timer
-   * interrupt where
+   * waking it up in the alarm interrupt handler. The timer interrupts at
+   * the earliest wake time of all sleeping threads, so the thread is woken
+   * (placed in the scheduler ready set) as soon as
    *
    * <p><blockquote>
    * (current time) >= (WaitUntil called time)+(x)
@@ -63,54 +80,129 @@ public class Alarm {
    * @see	nachos.machine.Timer#getTime()
    */
   public void waitUntil(long x) {
-	// This is a bad busy waiting solution 
-//	 long wakeTime = Machine.timer().getTime() + x;
-//	 while (wakeTime > Machine.timer().getTime())
-//	  KThread.yield();
-    wakeTime = Machine.timer().getTime() + x; //calc wake time
+    long wakeTime = Machine.timer().getTime() + x; //calc wake time
     Lib.debug(dbgAlarm,"In Wait Until (wakeTime = "+wakeTime+")");
-    
+
     //if wakeTime did not pass
     if(wakeTime > Machine.timer().getTime()){
-      boolean status = Machine.interrupt().disable();      
-      
-      //create alarmThread holding wait time and thread
-      alarmThread aThread = new alarmThread(wakeTime, KThread.currentThread());
-      
-      //add to alarmThread list
-      alarmList.add(aThread);
-      
+      boolean status = Machine.interrupt().disable();
+
+      Sleeper sleeper = new Sleeper(wakeTime, KThread.currentThread());
+      add(sleeper);
+
+      //the earliest sleeper sets the next alarm
+      if (heap[0] == sleeper)
+        Machine.timer().setAlarm(wakeTime);
+
       //put currentthread to sleep
       KThread.currentThread().sleep();
       Machine.interrupt().restore(status);
     }
   }
-  
-  //alarmThread class, holds waitTime and currentThread
-  public class alarmThread{
-    private KThread thread;
-    private long wakeTime;
-
-    //alarmThread constructor
-    public alarmThread (long wt, KThread t) {
-      wakeTime = wt;
-      thread = t;
+
+  /**
+   * Wake a thread sleeping in <tt>waitUntil()</tt> before its time.
+   *
+   * @param	thread	the thread to wake.
+   * @return	<tt>true</tt> if the thread was sleeping in
+   *		<tt>waitUntil()</tt>, <tt>false</tt> if it was not.
+   */
+  public boolean cancel(KThread thread) {
+    boolean status = Machine.interrupt().disable();
+
+    Sleeper sleeper = sleepers.get(thread);
+    if (sleeper != null) {
+      remove(sleeper);
+      thread.ready();
+    }
+
+    Machine.interrupt().restore(status);
+    return sleeper != null;
+  }
+
+  //a sleeping thread, and where it is in the heap
+  private static class Sleeper {
+    Sleeper(long wakeTime, KThread thread) {
+      this.wakeTime = wakeTime;
+      this.thread = thread;
+    }
+
+    long wakeTime;
+    KThread thread;
+    long sequence;
+    int index;
+  }
+
+  //add a sleeper to the heap
+  private void add(Sleeper sleeper) {
+    if (size == heap.length) {
+      Sleeper[] newHeap = new Sleeper[size*2];
+      System.arraycopy(heap, 0, newHeap, 0, size);
+      heap = newHeap;
+    }
+    sleeper.sequence = sequence++;
+    sleeper.index = size;
+    heap[size++] = sleeper;
+    siftUp(sleeper.index);
+    sleepers.put(sleeper.thread, sleeper);
+  }
+
+  //remove a sleeper from anywhere in the heap
+  private void remove(Sleeper sleeper) {
+    int i = sleeper.index;
+    Sleeper last = heap[--size];
+    heap[size] = null;
+    if (i < size) {
+      heap[i] = last;
+      last.index = i;
+      if (i > 0 && before(last, heap[(i-1)/2]))
+        siftUp(i);
+      else
+        siftDown(i);
     }
+    sleepers.remove(sleeper.thread);
+  }
 
-    //get wake time method
-    public long getWakeTime(){
-      return wakeTime;
+  private void siftUp(int i) {
+    Sleeper sleeper = heap[i];
+    while (i > 0 && before(sleeper, heap[(i-1)/2])) {
+      heap[i] = heap[(i-1)/2];
+      heap[i].index = i;
+      i = (i-1)/2;
     }
+    heap[i] = sleeper;
+    sleeper.index = i;
+  }
 
-    //get thread method
-    public KThread getThread(){
-      return thread;
+  private void siftDown(int i) {
+    Sleeper sleeper = heap[i];
+    while (2*i+1 < size) {
+      int child = 2*i+1;
+      if (child+1 < size && before(heap[child+1], heap[child]))
+        child++;
+      if (!before(heap[child], sleeper))
+        break;
+      heap[i] = heap[child];
+      heap[i].index = i;
+      i = child;
     }
+    heap[i] = sleeper;
+    sleeper.index = i;
+  }
+
+  //earlier wake time first; threads with the same time wake in the order
+  //they went to sleep
+  private static boolean before(Sleeper a, Sleeper b) {
+    if (a.wakeTime != b.wakeTime)
+      return a.wakeTime < b.wakeTime;
+    return a.sequence < b.sequence;
   }
 
-  //variables to use with waitUntil and timerInterrupt
-  private static long wakeTime;
-  private static ArrayList<alarmThread> alarmList = new ArrayList<alarmThread>();
+  //min-heap of sleeping threads on wake time, and each thread's entry
+  private Sleeper[] heap = new Sleeper[16];
+  private int size = 0;
+  private long sequence = 0;
+  private HashMap<KThread, Sleeper> sleepers = new HashMap<KThread, Sleeper>();
 
   /**
    * Tests whether this module is working.
@@ -120,4 +212,4 @@ public class Alarm {
   }
 
   private static final char dbgAlarm = 'a';
-}
\ No newline at end of file
+}
@@ -47,6 +47,144 @@ public class AlarmTest {
         }
     }
 
+    /**
+     * Sleep for each of a few lengths, and check that the sleep measured
+     * is at least that long, and ends soon after.
+     */
+    private static void precisionTest() {
+        System.out.println("#### Alarm precision test ####");
+
+        long[] lengths = { 1, 37, 499, 500, 1234, 20000 };
+        boolean enough = true;
+        long latest = 0;
+        for (int i = 0; i < lengths.length; i++) {
+            long start = Machine.timer().getTime();
+            ThreadedKernel.alarm.waitUntil(lengths[i]);
+            long slept = Machine.timer().getTime() - start;
+
+            enough &= (slept >= lengths[i]);
+            latest = Math.max(latest, slept - lengths[i]);
+        }
+
+        SelfTest.check("every sleep lasts at least as asked", enough);
+        SelfTest.check("and at most " + latest + " ticks more",
+                       latest < Stats.TimerTicks / 5);
+
+        System.out.println("#### Alarm precision test ends ####");
+    }
+
+    //orderSleeper class--sleeps until a given time, and notes when it woke
+    private static class orderSleeper implements Runnable {
+        orderSleeper(int id, long wakeTime) {
+            this.id = id;
+            this.wakeTime = wakeTime;
+        }
+
+        public void run() {
+            //note the order we go to sleep in, with no interrupt between
+            boolean intStatus = Machine.interrupt().disable();
+            sleptAs[id] = asleep++;
+            ThreadedKernel.alarm.waitUntil(wakeTime -
+                                           Machine.timer().getTime());
+            Machine.interrupt().restore(intStatus);
+
+            woke.append(id + " ");
+        }
+
+        private int id;
+        private long wakeTime;
+    }
+
+    /**
+     * Sleepers with wake times out of order, some of them equal, wake in
+     * order of wake time, and the ones with equal times in the order they
+     * went to sleep.
+     */
+    private static void orderTest() {
+        System.out.println("#### Alarm order test ####");
+
+        long[] offsets = { 3000, 1000, 2000, 1000, 3000 };
+        long base = Machine.timer().getTime() + 5000;
+
+        asleep = 0;
+        sleptAs = new int[offsets.length];
+        woke.setLength(0);
+
+        KThread[] threads = new KThread[offsets.length];
+        for (int i = 0; i < offsets.length; i++) {
+            threads[i] = new KThread(new orderSleeper(i, base + offsets[i]));
+            threads[i].setName("sleeper-" + i).fork();
+        }
+        for (int i = 0; i < offsets.length; i++)
+            threads[i].join();
+
+        //the order they woke in must be by wake time, and then by the order
+        //they slept in
+        String[] ids = woke.toString().trim().split(" ");
+        boolean byTime = true, bySleep = true;
+        for (int i = 1; i < ids.length; i++) {
+            int a = Integer.parseInt(ids[i-1]), b = Integer.parseInt(ids[i]);
+            byTime &= (offsets[a] <= offsets[b]);
+            if (offsets[a] == offsets[b])
+                bySleep &= (sleptAs[a] < sleptAs[b]);
+        }
+
+        SelfTest.check("sleepers wake in order of wake time ("
+                       + woke.toString().trim() + ")", byTime);
+        //the alarm readies sleepers with the same wake time in the order
+        //they slept in, but a lottery may run them in either
+        if (ThreadedKernel.scheduler instanceof LotteryScheduler)
+            System.out.println("** lottery runs sleepers woken together in "
+                               + "any order, their order not tested");
+        else
+            SelfTest.check("the ones with the same wake time in the order "
+                           + "they slept in", bySleep);
+
+        System.out.println("#### Alarm order test ends ####");
+    }
+
+    //cancelSleeper class--sleeps for a long time, unless woken early
+    private static class cancelSleeper implements Runnable {
+        public void run() {
+            long start = Machine.timer().getTime();
+
+            boolean intStatus = Machine.interrupt().disable();
+            cancelAsleep = true;
+            ThreadedKernel.alarm.waitUntil(cancelLength);
+            Machine.interrupt().restore(intStatus);
+
+            cancelSlept = Machine.timer().getTime() - start;
+        }
+    }
+
+    /**
+     * cancel() wakes a sleeping thread early, and does nothing to a thread
+     * that is not sleeping.
+     */
+    private static void cancelTest() {
+        System.out.println("#### Alarm cancel test ####");
+
+        cancelAsleep = false;
+        KThread sleeper = new KThread(new cancelSleeper()).setName("sleeper");
+        sleeper.fork();
+        while (!cancelAsleep)
+            KThread.yield();
+
+        boolean cancelled = ThreadedKernel.alarm.cancel(sleeper);
+        sleeper.join();
+        boolean notSleeping =
+            ThreadedKernel.alarm.cancel(KThread.currentThread());
+        boolean finished = ThreadedKernel.alarm.cancel(sleeper);
+
+        SelfTest.check("cancel() finds the sleeping thread", cancelled);
+        SelfTest.check("which wakes after " + cancelSlept + " of "
+                       + cancelLength + " ticks", cancelSlept < cancelLength);
+        SelfTest.check("cancel() finds no running or finished thread",
+                       !notSleeping && !finished);
+
+        System.out.println("#### Alarm cancel test ends ####");
+    }
+
     public static void runTest() {
 	    System.out.println("**** Alarm testing begins ****");
 
@@ -77,6 +215,22 @@ public class AlarmTest {
       aThread3.join();
       
   	  KThread.yield();
+
+      precisionTest();
+      orderTest();
+      cancelTest();
+
     	System.out.println("**** Alarm testing end ****");
     }
+
+    //how many order sleepers have gone to sleep, the order each did, and
+    //the order they woke in
+    private static int asleep;
+    private static int[] sleptAs;
+    private static StringBuffer woke = new StringBuffer();
+
+    //whether the cancel sleeper is asleep, and how long it slept
+    private static boolean cancelAsleep;
+    private static long cancelSlept;
+    private static final long cancelLength = 1000000;
 }
\ No newline at end of file
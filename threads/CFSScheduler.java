@@ -0,0 +1,344 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * A scheduler in the style of the Linux completely fair scheduler.
+ *
+ * <p>
+ * Each thread is charged for the clock ticks it actually runs: from the time
+ * the CPU is dispatched to it until the time it next gives the CPU up, or is
+ * asked to by the timer. The charge is divided by the thread's weight and
+ * added to its virtual runtime, and each queue dequeues the waiting thread
+ * with the smallest virtual runtime. So threads of equal weight get equal
+ * shares of the CPU, however often or seldom each of them yields.
+ *
+ * <p>
+ * A thread's priority is its nice value, from -20 to 19, with the same
+ * weights as Linux: each step is worth about 10% of the CPU. The waiting
+ * threads are kept in a red-black tree (a <tt>TreeSet</tt>), ordered by
+ * virtual runtime and then by arrival. A thread that becomes ready is placed
+ * no earlier than the current thread, as charged up to then, or the first
+ * waiting thread, so a thread that slept does not come back owed a burst of
+ * CPU. Other queues, such as those of locks, leave
+ * virtual runtimes alone: they only pick the waiter that has had the least
+ * CPU.
+ *
+ * <p>
+ * The timer preempts the current thread once its virtual runtime is more than
+ * <tt>CFSScheduler.granularity</tt> ticks (default 500, one timer interval)
+ * ahead of the next ready thread's. This scheduler does not donate priority.
+ */
+public class CFSScheduler extends Scheduler {
+    /**
+     * Allocate a new CFS scheduler.
+     */
+    public CFSScheduler() {
+	granularity = (long) Config.getInteger("CFSScheduler.granularity", 500)
+	    * scale;
+    }
+
+    /**
+     * Allocate a new CFS thread queue.
+     *
+     * @param	transferPriority	ignored. This scheduler does not
+     *					donate priority.
+     * @return	a new CFS thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new FairQueue(false);
+    }
+
+    /**
+     * Allocate the ready queue, and remember it so that the timer can
+     * compare the current thread with the next one.
+     *
+     * @return	a new CFS thread queue.
+     */
+    public ThreadQueue newReadyQueue() {
+	Lib.assertTrue(readyQueue == null);
+
+	readyQueue = new FairQueue(true);
+	return readyQueue;
+    }
+
+    /**
+     * Charge the current thread for the ticks it has run, and preempt it if
+     * it is now far enough ahead of the next ready thread.
+     *
+     * @return	<tt>true</tt> if the current thread should yield.
+     */
+    public boolean timerInterrupt() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	ThreadState state = account();
+
+	if (readyQueue == null || readyQueue.waiting.isEmpty())
+	    return false;
+	return state.vruntime - readyQueue.waiting.first().vruntime > granularity;
+    }
+
+    /**
+     * Charge the thread giving up the CPU, and start the clock for the next.
+     */
+    public void threadSwitch(KThread previous, KThread next) {
+	account();
+    }
+
+    /**
+     * Return the nice value of the specified thread.
+     */
+    public int getPriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return getThreadState(thread).nice;
+    }
+
+    /**
+     * Return the nice value of the specified thread. There is no donation,
+     * so this is the same as <tt>getPriority()</tt>.
+     */
+    public int getEffectivePriority(KThread thread) {
+	return getPriority(thread);
+    }
+
+    /**
+     * Set the nice value of the specified thread. The new weight applies to
+     * the ticks it runs from now on.
+     */
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= priorityMinimum &&
+		       priority <= priorityMaximum);
+
+	if (thread == KThread.currentThread())
+	    account();
+
+	ThreadState state = getThreadState(thread);
+	state.nice = priority;
+	state.weight = weights[priority - priorityMinimum];
+    }
+
+    /**
+     * Lower the nice value of the current thread by one.
+     */
+    public boolean increasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+	int priority = getPriority(thread);
+	if (priority == priorityMinimum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority-1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    /**
+     * Raise the nice value of the current thread by one.
+     */
+    public boolean decreasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+	int priority = getPriority(thread);
+	if (priority == priorityMaximum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority+1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    /**
+     * Return the number of clock ticks the specified thread has been charged
+     * for, up to its last context switch or timer interrupt.
+     *
+     * @param	thread	the thread.
+     * @return	the ticks it has run.
+     */
+    public long getRuntime(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return getThreadState(thread).runtime;
+    }
+
+    /**
+     * Tests whether this module is working.
+     */
+    public static void selfTest() {
+	CFSSchedulerTest.runTest();
+    }
+
+    /** The default nice value for a new thread. */
+    public static final int priorityDefault = 0;
+    /** The most favourable nice value. */
+    public static final int priorityMinimum = -20;
+    /** The least favourable nice value. */
+    public static final int priorityMaximum = 19;
+
+    /**
+     * Charge the current thread for the ticks since it was last charged.
+     *
+     * @return	the scheduling state of the current thread.
+     */
+    private ThreadState account() {
+	long now = Machine.timer().getTime();
+	ThreadState state = getThreadState(KThread.currentThread());
+
+	long ran = now - lastCharge;
+	lastCharge = now;
+
+	state.runtime += ran;
+	state.vruntime += ran * nice0Weight * scale / state.weight;
+	return state;
+    }
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new ThreadState();
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that dequeues the thread with the smallest
+     * virtual runtime.
+     */
+    private class FairQueue extends ThreadQueue {
+	FairQueue(boolean ready) {
+	    this.ready = ready;
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    // a yielding thread is charged before it is placed
+	    if (thread == KThread.currentThread())
+		account();
+	    else if (ready)
+		catchUp();
+
+	    ThreadState state = getThreadState(thread);
+	    if (ready)
+		state.vruntime = Math.max(state.vruntime, minVruntime);
+	    state.arrival = arrivals++;
+	    waiting.add(state);
+	    state.thread = thread;
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+	    Lib.assertTrue(waiting.isEmpty());
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState next = waiting.pollFirst();
+	    if (next == null)
+		return null;
+
+	    if (ready)
+		minVruntime = Math.max(minVruntime, next.vruntime);
+	    return next.thread;
+	}
+
+	/**
+	 * Bring the least virtual runtime up to date with the current
+	 * thread, which may have run for a long time since it was dequeued,
+	 * or with the first waiting thread, if that is behind it.
+	 */
+	private void catchUp() {
+	    long least = account().vruntime;
+	    if (!waiting.isEmpty())
+		least = Math.min(least, waiting.first().vruntime);
+	    minVruntime = Math.max(minVruntime, least);
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (Iterator<ThreadState> i=waiting.iterator(); i.hasNext(); )
+		System.out.print(i.next().thread + " ");
+	}
+
+	private TreeSet<ThreadState> waiting =
+	    new TreeSet<ThreadState>(new Comparator<ThreadState>() {
+		public int compare(ThreadState a, ThreadState b) {
+		    if (a.vruntime != b.vruntime)
+			return a.vruntime < b.vruntime ? -1 : 1;
+		    return Long.compare(a.arrival, b.arrival);
+		}
+	    });
+	/** <tt>true</tt> if this is the ready queue, which places threads. */
+	private boolean ready;
+	/**
+	 * In the ready queue, the least virtual runtime of the current
+	 * thread and the waiting threads, as of the last time it was looked
+	 * at. It never goes back.
+	 */
+	private long minVruntime = 0;
+	private long arrivals = 0;
+    }
+
+    /**
+     * The scheduling state of a thread: its nice value and what it has run.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    protected class ThreadState {
+	/** The thread, set when it is queued. */
+	protected KThread thread;
+	/** The nice value of the thread, and its weight. */
+	protected int nice = priorityDefault;
+	protected int weight = nice0Weight;
+	/** The clock ticks it has run, in all. */
+	protected long runtime = 0;
+	/** Its runtime weighted to nice 0, in units of 1/scale of a tick. */
+	protected long vruntime = 0;
+	/** When it last started waiting in a queue. */
+	protected long arrival;
+    }
+
+    /**
+     * The weight of each nice value, from -20 to 19, as in Linux.
+     */
+    private static final int[] weights = {
+	88761, 71755, 56483, 46273, 36291,
+	29154, 23254, 18705, 14949, 11916,
+	9548, 7620, 6100, 4904, 3906,
+	3121, 2501, 1991, 1586, 1277,
+	1024, 820, 655, 526, 423,
+	335, 272, 215, 172, 137,
+	110, 87, 70, 56, 45,
+	36, 29, 23, 18, 15,
+    };
+    private static final int nice0Weight = 1024;
+    /** Extra precision for virtual runtimes of heavily weighted threads. */
+    private static final long scale = 1024;
+
+    private long granularity;
+
+    private FairQueue readyQueue = null;
+    /** When the current thread was last charged. */
+    private long lastCharge = 0;
+}
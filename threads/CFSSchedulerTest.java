@@ -0,0 +1,124 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A Tester for the CFSScheduler class
+ */
+public class CFSSchedulerTest {
+
+  /**
+   * Return the ticks a thread has been charged for.
+   */
+  private static long runtime(KThread thread) {
+    boolean intStatus = Machine.interrupt().disable();
+    long runtime = scheduler.getRuntime(thread);
+    Machine.interrupt().restore(intStatus);
+    return runtime;
+  }
+
+  /**
+   * Spin, so as to run whenever allowed to, until the given time or until told to stop.
+   */
+  private static void spin(long until) {
+    while (!stop && Machine.timer().getTime() < until) {
+      boolean intStatus = Machine.interrupt().disable();
+      Machine.interrupt().restore(intStatus);
+    }
+  }
+
+  /**
+   * CPU-bound thread: spins until the sleeper is done.
+   */
+  private static class Hog implements Runnable {
+    public void run() {
+      spin(Long.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Thread that sleeps a while, noting how late it runs after each wake up, and then turns
+   * CPU-bound for a while, noting its share of the CPU against the hog's.
+   */
+  private static class Sleeper implements Runnable {
+    Sleeper(KThread hog) {
+      this.hog = hog;
+    }
+
+    public void run() {
+      for (int i = 0; i < sleeps; i++) {
+        long wakeTime = Machine.timer().getTime() + sleepTicks;
+        ThreadedKernel.alarm.waitUntil(sleepTicks);
+        latency = Math.max(latency, Machine.timer().getTime() - wakeTime);
+      }
+
+      long hogBefore = runtime(hog);
+      long ownBefore = runtime(KThread.currentThread());
+      spin(Machine.timer().getTime() + spinTicks);
+      hogRan = runtime(hog) - hogBefore;
+      ownRan = runtime(KThread.currentThread()) - ownBefore;
+
+      stop = true;
+    }
+
+    private KThread hog;
+  }
+
+  /**
+   * A thread that sleeps runs soon after it wakes, ahead of a CPU-bound thread that has run all
+   * along. But its virtual runtime is brought up to date as it wakes, so if it then turns
+   * CPU-bound itself, it gets half of the CPU, not all of it until it has caught up.
+   */
+  private static void fairnessTest() {
+    System.out.println("#### CFS fairness test ####");
+
+    stop = false;
+    latency = 0;
+
+    KThread hog = new KThread(new Hog()).setName("hog");
+    KThread sleeper = new KThread(new Sleeper(hog)).setName("sleeper");
+    hog.fork();
+    sleeper.fork();
+    sleeper.join();
+    hog.join();
+
+    SelfTest.check("the sleeper runs at most " + latency + " ticks after it wakes",
+        latency < Stats.TimerTicks);
+    double share = (double) ownRan / (ownRan + hogRan);
+    SelfTest.check("then spinning, it gets " + ownRan + " ticks to the hog's " + hogRan,
+        share >= 0.4 && share <= 0.6);
+
+    System.out.println("#### CFS fairness test ends ####");
+  }
+
+  /**
+   * Tests whether this module is working.
+   */
+  public static void runTest() {
+    System.out.println("**** CFSScheduler testing begins ****");
+
+    if (ThreadedKernel.scheduler instanceof CFSScheduler) {
+      scheduler = (CFSScheduler) ThreadedKernel.scheduler;
+      fairnessTest();
+    }
+    else {
+      System.out.println("** skipped, ThreadedKernel.scheduler is not a CFSScheduler");
+    }
+
+    System.out.println("**** CFSScheduler testing ends ****");
+  }
+
+  private static CFSScheduler scheduler;
+
+  /* Set when the hog is to stop spinning */
+  private static boolean stop;
+  /* The sleeper's longest wait to run after waking, and the ticks each thread ran while the
+   * sleeper spun */
+  private static long latency, hogRan, ownRan;
+
+  /* The sleeper sleeps long enough to fall far behind the hog's virtual runtime, and then spins
+   * for less than that */
+  private static final int sleeps = 10;
+  private static final int sleepTicks = 5000;
+  private static final int spinTicks = 20000;
+}
@@ -7,71 +7,144 @@ import nachos.machine.*;
  * can be waiting to <i>speak</i>, and multiple threads can be waiting to <i>listen</i>. But there
  * should never be a time when both a speaker and a listener are waiting, because the two threads
  * can be paired off at this point.
+ *
+ * <p>
+ * A communicator can also be made a bounded channel, with room for a number of words set when it
+ * is allocated. Speakers then only wait for room in the channel, not for listeners, and
+ * <tt>speak(int[])</tt> and <tt>listen(int[], int)</tt> move many words for each time they take
+ * the lock. Words are heard in the order they were spoken. Each speak or listen wakes at most one
+ * waiting thread, which wakes the next if there is still something for it to do.
  */
 public class Communicator {
-  /* Lock for mutual exclusion and condition variables */
-  public Lock mutex;
-  /* Condition variables */
-  public Condition isSpeaking;
-  public Condition isListening;
-  /* Booleans indicating buffer state */
-  public boolean isEmpty;
-  /* holds message */
-  private int word;
-
   /**
    * Allocate a new communicator.
    */
   public Communicator() {
+    this(1, true);
+  }
+
+  /**
+   * Allocate a new communicator that is a bounded channel.
+   *
+   * @param capacity the number of words the channel can hold before speakers must wait.
+   */
+  public Communicator(int capacity) {
+    this(capacity, false);
+  }
+
+  private Communicator(int capacity, boolean synchronous) {
+    Lib.assertTrue(capacity > 0);
+
+    this.buffer = new int[capacity];
+    this.synchronous = synchronous;
+
     this.mutex = new Lock();
     this.isSpeaking = new Condition(this.mutex);
     this.isListening = new Condition(this.mutex);
-    this.isEmpty = true;
+    this.isHeard = new Condition(this.mutex);
   }
 
   /**
    * Wait for a thread to listen through this communicator, and then transfer <i>word</i> to the
    * listener.
-   * 
+   *
    * <p>
    * Does not return until this thread is paired up with a listening thread. Exactly one listener
-   * should receive <i>word</i>.
-   * 
+   * should receive <i>word</i>. If this communicator is a bounded channel, returns as soon as
+   * <i>word</i> is in the channel.
+   *
    * @param word the integer to transfer.
    */
   public void speak(int word) {
     this.mutex.acquire();
-    while(isEmpty != true){
+    //wait for room
+    while(count == buffer.length){
       this.isSpeaking.sleep();
     }
     //send word
-    this.word = word;
-    this.isEmpty = false;
-    //wake up listeners
-    this.isListening.wakeAll();
+    put(word);
+    finishSpeaking();
+    this.mutex.release();
+  }
+
+  /**
+   * Transfer all of <i>words</i>, in order, to listeners. Waits only when the channel is full, and
+   * then fills it with as many words as fit at once. Words of other speakers may come between
+   * batches.
+   *
+   * <p>
+   * Does not return until every word is in the channel, or, if this communicator is not a bounded
+   * channel, until every word has been heard.
+   *
+   * @param words the integers to transfer.
+   */
+  public void speak(int[] words) {
+    this.mutex.acquire();
+    int sent = 0;
+    while(sent < words.length){
+      //wait for room
+      while(count == buffer.length){
+        this.isSpeaking.sleep();
+      }
+      //send as many words as fit
+      int batch = Math.min(words.length - sent, buffer.length - count);
+      for(int i = 0; i < batch; i++){
+        put(words[sent++]);
+      }
+      //let a listener start on them while we wait for more room
+      if(sent < words.length){
+        this.isListening.wake();
+      }
+    }
+    finishSpeaking();
     this.mutex.release();
   }
 
   /**
    * Wait for a thread to speak through this communicator, and then return the <i>word</i> that
    * thread passed to <tt>speak()</tt>.
-   * 
+   *
    * @return the integer transferred.
    */
   public int listen() {
     this.mutex.acquire();
-    while(isEmpty != false){
+    //wait for a word
+    while(count == 0){
       this.isListening.sleep();
     }
     //receive word
-    int word = this.word;
-    this.isEmpty = false;
-    //wake up speakers
-    this.isSpeaking.wakeAll();
+    int word = take();
+    finishListening();
     this.mutex.release();
     return word;
   }
 
+  /**
+   * Wait for at least one word to be spoken through this communicator, and then receive as many as
+   * are waiting, up to <i>n</i>.
+   *
+   * @param words where to put the words received, in the order they were spoken.
+   * @param n the most words to receive, at least 1 and at most <tt>words.length</tt>.
+   * @return the number of words received.
+   */
+  public int listen(int[] words, int n) {
+    Lib.assertTrue(n > 0 && n <= words.length);
+
+    this.mutex.acquire();
+    //wait for a word
+    while(count == 0){
+      this.isListening.sleep();
+    }
+    //receive all the words waiting, up to n
+    int received = Math.min(n, count);
+    for(int i = 0; i < received; i++){
+      words[i] = take();
+    }
+    finishListening();
+    this.mutex.release();
+    return received;
+  }
+
   /**
    * Tests whether this module is working.
    */
@@ -79,4 +152,69 @@ public class Communicator {
     CommunicatorTest.runTest();
   }
 
+  /* append a word to the channel, which must have room */
+  private void put(int word) {
+    buffer[(head + count) % buffer.length] = word;
+    count++;
+    spoken++;
+  }
+
+  /* remove the oldest word from the channel, which must not be empty */
+  private int take() {
+    int word = buffer[head];
+    head = (head + 1) % buffer.length;
+    count--;
+    heard++;
+    return word;
+  }
+
+  /**
+   * Called by a speaker holding the lock once its words are in the channel: wake a listener for
+   * them, pass room that is left on to another speaker, and, in synchronous mode, wait until the
+   * last word has been heard.
+   */
+  private void finishSpeaking() {
+    this.isListening.wake();
+    if(count < buffer.length){
+      this.isSpeaking.wake();
+    }
+    if(synchronous){
+      long last = spoken;
+      while(heard < last){
+        this.isHeard.sleep();
+      }
+    }
+  }
+
+  /**
+   * Called by a listener holding the lock once it has its words: wake a speaker to fill the room
+   * made, pass words that are left on to another listener, and, in synchronous mode, tell the
+   * speaker its word was heard.
+   */
+  private void finishListening() {
+    this.isSpeaking.wake();
+    if(count > 0){
+      this.isListening.wake();
+    }
+    if(synchronous){
+      this.isHeard.wake();
+    }
+  }
+
+  /* Lock for mutual exclusion and condition variables */
+  private Lock mutex;
+  /* Condition variables: speakers waiting for room, listeners waiting for words, and in
+   * synchronous mode the speaker waiting for its word to be heard */
+  private Condition isSpeaking;
+  private Condition isListening;
+  private Condition isHeard;
+  /* holds messages, count of them starting at head */
+  private int[] buffer;
+  private int head = 0;
+  private int count = 0;
+  /* words ever spoken and heard */
+  private long spoken = 0;
+  private long heard = 0;
+  /* whether speak() waits until its words are heard */
+  private boolean synchronous;
 }
@@ -101,6 +101,80 @@ public class CommunicatorTest {
     private Random rng;
   }
 
+  /**
+   * BulkSpeaker class, which implements a thread that speaks a numbered sequence of words through a
+   * bounded channel, a few at a time.
+   */
+  private static class BulkSpeaker implements Runnable {
+
+    /* Constructor */
+    BulkSpeaker(int id, Communicator channel, Random rng) {
+      this.id = id;
+      this.channel = channel;
+      this.rng = rng;
+    }
+
+    public void run() {
+      int sent = 0;
+      while (sent < bulkWords) {
+        int[] words = new int[Math.min(1 + rng.nextInt(2 * bulkCapacity), bulkWords - sent)];
+        for (int i = 0; i < words.length; i++)
+          words[i] = id * bulkWords + sent++;
+        channel.speak(words);
+      }
+    }
+
+    /* My number, which tags my words */
+    private int id;
+    /* The channel to speak through */
+    private Communicator channel;
+    /* Random number generator */
+    private Random rng;
+  }
+
+  /**
+   * Has bulk speakers send words through a bounded channel to one bulk listener, and checks that
+   * every word arrives once, and each speaker's words in order.
+   */
+  private static void bulkTest(Random rng) {
+    System.out.println("**** Bounded channel testing begins ****");
+
+    Communicator channel = new Communicator(bulkCapacity);
+
+    KThread speakers[] = new KThread[numBulkSpeakers];
+    for (int i = 0; i < numBulkSpeakers; i++) {
+      speakers[i] = new KThread(new BulkSpeaker(i, channel, rng));
+      speakers[i].setName("Bulk speaker #" + i);
+      speakers[i].fork();
+    }
+
+    /* next expected word of each speaker */
+    int next[] = new int[numBulkSpeakers];
+    int words[] = new int[bulkCapacity];
+    int received = 0, listens = 0;
+    boolean ok = true;
+    while (received < numBulkSpeakers * bulkWords) {
+      int n = channel.listen(words, 1 + rng.nextInt(bulkCapacity));
+      listens++;
+      for (int i = 0; i < n; i++) {
+        int speaker = words[i] / bulkWords;
+        if (words[i] % bulkWords != next[speaker]) {
+          System.out.println("** Out of order: got " + words[i] + " from speaker #" + speaker
+              + ", expected " + (speaker * bulkWords + next[speaker]));
+          ok = false;
+        }
+        next[speaker] = words[i] % bulkWords + 1;
+      }
+      received += n;
+    }
+
+    for (int i = 0; i < numBulkSpeakers; i++)
+      speakers[i].join();
+
+    SelfTest.check("received " + received + " words in " + listens + " listens, all in order", ok);
+    System.out.println("**** Bounded channel testing ends ****");
+  }
+
   /**
    * Tests whether this module is working.
    */
@@ -146,6 +220,8 @@ public class CommunicatorTest {
 
     System.out.println("**** Communicator testing ends ****");
 
+    bulkTest(rng);
+
   }
 
   /* Number of Threads. Must be EVEN!! */
@@ -157,4 +233,9 @@ public class CommunicatorTest {
   /* Bounds on delay between attempts to speak/listen */
   private static final int minDelay = 0;
   private static final int maxDelay = 0;
+
+  /* Bounded channel test: capacity, speakers, and words each speaker sends */
+  private static final int bulkCapacity = 16;
+  private static final int numBulkSpeakers = 3;
+  private static final int bulkWords = 2000;
 }
@@ -1,10 +1,10 @@
 package nachos.threads;
 
 import nachos.machine.*;
-import java.util.LinkedList;
 
 /**
- * An implementation of condition variables built upon semaphores.
+ * An implementation of condition variables that links waiting threads together, without
+ * allocating anything to wait.
  * 
  * <p>
  * A condition variable is a synchronization primitive that does not have a value (unlike a
@@ -53,8 +53,6 @@ public class Condition {
    */
   public Condition(Lock conditionLock) {
     this.conditionLock = conditionLock;
-
-    waitQueue = new LinkedList<Semaphore>();
   }
 
   /**
@@ -63,30 +61,47 @@ public class Condition {
    * thread will automatically reacquire the lock before <tt>sleep()</tt> returns.
    * 
    * <p>
-   * This implementation uses semaphores to implement this, by allocating a semaphore for each
-   * waiting thread. The waker will <tt>V()</tt> this semaphore, so there is no chance the sleeper
-   * will miss the wake-up, even though the lock is released before calling <tt>P()</tt>.
+   * The waiting threads are linked through their own <tt>conditionNext</tt> field, so waiting
+   * allocates nothing. Interrupts stay disabled from releasing the lock until the thread is
+   * asleep, so there is no chance the sleeper will miss the wake-up.
    */
   public void sleep() {
     Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
-    Semaphore waiter = new Semaphore(0);
-    waitQueue.add(waiter);
+    KThread thread = KThread.currentThread();
+    if (waitTail == null)
+      waitHead = thread;
+    else
+      waitTail.conditionNext = thread;
+    waitTail = thread;
 
+    boolean intStatus = Machine.interrupt().disable();
     conditionLock.release();
-    waiter.P();
+    KThread.sleep();
+    Machine.interrupt().restore(intStatus);
+
     conditionLock.acquire();
   }
 
   /**
-   * Wake up at most one thread sleeping on this condition variable. The current thread must hold
-   * the associated lock.
+   * Wake up at most one thread sleeping on this condition variable, the one that has waited
+   * longest. The current thread must hold the associated lock.
    */
   public void wake() {
     Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
-    if (!waitQueue.isEmpty())
-      ((Semaphore) waitQueue.removeFirst()).V();
+    KThread thread = waitHead;
+    if (thread == null)
+      return;
+
+    waitHead = thread.conditionNext;
+    if (waitHead == null)
+      waitTail = null;
+    thread.conditionNext = null;
+
+    boolean intStatus = Machine.interrupt().disable();
+    thread.ready();
+    Machine.interrupt().restore(intStatus);
   }
 
   /**
@@ -96,7 +111,7 @@ public class Condition {
   public void wakeAll() {
     Lib.assertTrue(conditionLock.isHeldByCurrentThread());
 
-    while (!waitQueue.isEmpty())
+    while (waitHead != null)
       wake();
   }
 
@@ -110,5 +125,6 @@ public class Condition {
   private static final char dbgCondition = 'c';
 
   private Lock conditionLock;
-  private LinkedList<Semaphore> waitQueue;
+  /** The threads sleeping on this condition, first to wait first, linked by conditionNext. */
+  private KThread waitHead = null, waitTail = null;
 }
@@ -37,8 +37,8 @@ public class Condition2 {
     conditionLock.release();
     waitQueue.waitForAccess(KThread.currentThread());
     KThread.sleep();
-    // acquires lock after being woke up
-    conditionLock.acquire();
+    // wake() moved us onto the lock's queue, so we come back holding it
+    Lib.assertTrue(conditionLock.isHeldByCurrentThread());
     Machine.interrupt().restore(status);
 
   }
@@ -46,15 +46,20 @@ public class Condition2 {
   /**
    * Wake up at most one thread sleeping on this condition variable. The current thread must hold
    * the associated lock.
+   * 
+   * <p>
+   * The thread is not readied, only to block again on the lock, which the current thread holds.
+   * Instead it is moved straight onto the lock's wait queue (wait morphing), and runs once the
+   * lock is released to it.
    */
   public void wake() {
     //if current thread doesn't hold the lock, then abort
     Lib.assertTrue(conditionLock.isHeldByCurrentThread());
     boolean status = Machine.interrupt().disable();
     KThread thread = waitQueue.nextThread();
-    //wakes up thread
+    //moves the thread onto the lock
     if (thread != null) {
-      thread.ready();
+      conditionLock.requeue(thread);
     }
     Machine.interrupt().restore(status);
 
@@ -62,14 +67,15 @@ public class Condition2 {
 
   /**
    * Wake up all threads sleeping on this condition variable. The current thread must hold the
-   * associated lock.
+   * associated lock. Like <tt>wake()</tt>, moves them onto the lock's wait queue, so each runs
+   * once, when it gets the lock.
    */
   public void wakeAll() {
     Lib.assertTrue(conditionLock.isHeldByCurrentThread());
     boolean status = Machine.interrupt().disable();
-    //goes through the thread queue and wakes up all the threads
+    //goes through the thread queue and moves all the threads onto the lock
     for(KThread thread = waitQueue.nextThread(); thread != null; thread = waitQueue.nextThread()){
-      thread.ready();
+      conditionLock.requeue(thread);
     }
     Machine.interrupt().restore(status);
   }
@@ -0,0 +1,259 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A benchmark for context switching between KThreads, and so for the TCB
+ * underneath them. Measures four patterns:
+ *
+ * <ul>
+ * <li>yield ping-pong: two threads yielding to each other;
+ * <li>fork/finish churn: forking a thread that does nothing, and joining it;
+ * <li>join fan-in: forking many threads, then joining all of them;
+ * <li>condition wakeAll: waking 1000 threads waiting on a <tt>Condition2</tt>,
+ * which all need its lock.
+ * </ul>
+ *
+ * Like JMH, each benchmark is run a few times to warm up the JVM before the
+ * rounds that are measured, and the mean and best of those rounds are
+ * reported. The TCB backend is chosen when Nachos starts, so to compare
+ * backends, run the benchmark once with each setting of
+ * <tt>TCB.virtualThreads</tt> in nachos.conf. The wall-clock numbers include
+ * the scheduler and AutoGrader hooks, which every real context switch pays
+ * too. The number of context switches per operation is reported as well;
+ * the wakeAll benchmark needs <tt>TCB.maxThreads</tt> of at least 1010, or
+ * virtual threads, and is skipped otherwise.
+ */
+public class ContextSwitchTest {
+
+  /**
+   * A benchmark, run as a number of operations whose mean cost is reported.
+   */
+  private static abstract class Benchmark {
+    Benchmark(String name, String unit, int operations) {
+      this.name = name;
+      this.unit = unit;
+      this.operations = operations;
+    }
+
+    /**
+     * Perform <tt>operations</tt> operations, and set <tt>elapsed</tt> and
+     * <tt>switches</tt> if only part of the run should be measured.
+     */
+    abstract void run();
+
+    String name, unit;
+    int operations;
+    long elapsed = -1, switches = -1;
+  }
+
+  /**
+   * Thread that yields a given number of times, then finishes.
+   */
+  private static class Yielder implements Runnable {
+    Yielder(int yields) {
+      this.yields = yields;
+    }
+
+    public void run() {
+      for (int i=0; i<yields; i++)
+        KThread.yield();
+    }
+
+    private int yields;
+  }
+
+  /**
+   * Thread that does nothing at all.
+   */
+  private static class Empty implements Runnable {
+    public void run() {
+    }
+  }
+
+  /**
+   * Two threads yield to each other; each yield is one context switch.
+   */
+  private static class PingPong extends Benchmark {
+    PingPong() {
+      super("yield ping-pong", "switch", 20000);
+    }
+
+    void run() {
+      KThread partner = new KThread(new Yielder(operations/2));
+      partner.setName("ping-pong partner");
+      partner.fork();
+
+      for (int i=0; i<operations/2; i++)
+        KThread.yield();
+
+      partner.join();
+    }
+  }
+
+  /**
+   * Fork a thread, and join it once it has run and finished.
+   */
+  private static class Churn extends Benchmark {
+    Churn() {
+      super("fork/finish churn", "thread", 5000);
+    }
+
+    void run() {
+      for (int i=0; i<operations; i++) {
+        KThread child = new KThread(new Empty());
+        child.fork();
+        child.join();
+      }
+    }
+  }
+
+  /**
+   * Fork a batch of threads that each yield once, then join them all.
+   */
+  private static class FanIn extends Benchmark {
+    FanIn() {
+      super("join fan-in", "thread", 5000);
+    }
+
+    void run() {
+      for (int i=0; i<operations; i+=batchSize) {
+        KThread[] children = new KThread[batchSize];
+
+        for (int j=0; j<batchSize; j++) {
+          children[j] = new KThread(new Yielder(1));
+          children[j].fork();
+        }
+        for (int j=0; j<batchSize; j++)
+          children[j].join();
+      }
+    }
+
+    /* stay well under the default TCB limit */
+    private static final int batchSize = 100;
+  }
+
+  /**
+   * Thread that waits once on a condition variable, and counts itself in and
+   * out.
+   */
+  private static class Waiter implements Runnable {
+    Waiter(WakeAll benchmark) {
+      this.benchmark = benchmark;
+    }
+
+    public void run() {
+      benchmark.lock.acquire();
+      benchmark.waiting++;
+      benchmark.condition.sleep();
+      if (--benchmark.waiting == 0)
+        benchmark.done.V();
+      benchmark.lock.release();
+    }
+
+    private WakeAll benchmark;
+  }
+
+  /**
+   * Wake many threads waiting on one condition variable, all of which then
+   * need its lock. Only the switches from the wakeAll() until the last of them
+   * has released the lock are counted; a thread that is readied only to block
+   * on the lock again costs two.
+   */
+  private static class WakeAll extends Benchmark {
+    WakeAll() {
+      super("condition wakeAll", "waiter", 1000);
+    }
+
+    void run() {
+      KThread[] waiters = new KThread[operations];
+      for (int i=0; i<operations; i++) {
+        waiters[i] = new KThread(new Waiter(this));
+        waiters[i].fork();
+      }
+
+      lock.acquire();
+      while (waiting < operations) {
+        lock.release();
+        KThread.yield();
+        lock.acquire();
+      }
+
+      long start = System.nanoTime();
+      long startSwitches = KThread.getSwitchCount();
+      condition.wakeAll();
+      lock.release();
+      done.P();
+      elapsed = System.nanoTime() - start;
+      switches = KThread.getSwitchCount() - startSwitches;
+
+      for (int i=0; i<operations; i++)
+        waiters[i].join();
+    }
+
+    Lock lock = new Lock();
+    Condition2 condition = new Condition2(lock);
+    Semaphore done = new Semaphore(0);
+    int waiting = 0;
+  }
+
+  /**
+   * Run a benchmark, and print the mean and best cost per operation over the
+   * measured rounds.
+   */
+  private static void measure(Benchmark benchmark) {
+    for (int i=0; i<warmupRounds; i++)
+      benchmark.run();
+
+    long total = 0, best = Long.MAX_VALUE, switches = 0;
+    for (int i=0; i<measuredRounds; i++) {
+      long start = System.nanoTime();
+      long startSwitches = KThread.getSwitchCount();
+      benchmark.elapsed = benchmark.switches = -1;
+      benchmark.run();
+      long elapsed = System.nanoTime() - start;
+
+      if (benchmark.elapsed >= 0)
+        elapsed = benchmark.elapsed;
+      if (benchmark.switches >= 0)
+        switches += benchmark.switches;
+      else
+        switches += KThread.getSwitchCount() - startSwitches;
+
+      total += elapsed;
+      best = Math.min(best, elapsed);
+    }
+
+    long operations = (long) benchmark.operations;
+    System.out.println(benchmark.name + ": mean " +
+        total/measuredRounds/operations + " ns/" + benchmark.unit +
+        ", best " + best/operations + " ns/" + benchmark.unit +
+        ", " + Math.round(100.0*switches/measuredRounds/operations)/100.0 +
+        " switches/" +
+        benchmark.unit);
+  }
+
+  /**
+   * Runs all the benchmarks.
+   */
+  public static void runTest() {
+    System.out.println("**** Context switch benchmark begins ****");
+
+    System.out.println("TCB backend: " +
+        (TCB.usesVirtualThreads() ? "virtual threads" : "platform threads"));
+
+    measure(new PingPong());
+    measure(new Churn());
+    measure(new FanIn());
+
+    if (TCB.getThreadLimit() >= 1010)
+      measure(new WakeAll());
+    else
+      System.out.println("condition wakeAll: skipped, needs TCB.maxThreads of 1010");
+
+    System.out.println("**** Context switch benchmark ends ****");
+  }
+
+  private static final int warmupRounds = 3;
+  private static final int measuredRounds = 5;
+}
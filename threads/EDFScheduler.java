@@ -0,0 +1,400 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeSet;
+
+/**
+ * A scheduler with an earliest-deadline-first real-time class.
+ *
+ * <p>
+ * A thread becomes real-time with <tt>KThread.setRealTime()</tt>, declaring a
+ * period, a budget and a relative deadline: each period it releases a job that
+ * needs at most <i>budget</i> ticks of CPU, and must be done within
+ * <i>deadline</i> ticks of its release. The thread ends each job with
+ * <tt>KThread.waitForNextPeriod()</tt>. Ready real-time threads always run
+ * before best-effort ones, earliest deadline first, and the timer preempts a
+ * running thread when a job with an earlier deadline becomes ready.
+ *
+ * <p>
+ * A thread is admitted only if the total density of the real-time threads,
+ * the sum of <i>budget / deadline</i>, stays within
+ * <tt>EDFScheduler.maxUtilization</tt> (default 1.0), so that, with deadlines
+ * no longer than periods, every admitted job can meet its deadline. The
+ * budget is enforced: a job that has run for its budget is not chosen again
+ * until its next period, so an overrunning thread cannot make the others miss.
+ * A job that is not done by its deadline is counted as a miss in the
+ * <tt>Stats</tt> printed at halt.
+ *
+ * <p>
+ * Best-effort threads are scheduled by <tt>EDFScheduler.fallback</tt> (default
+ * <tt>RoundRobinScheduler</tt>), which gets the ready queue and every other
+ * queue for them, and handles priorities. Releases and preemption happen at
+ * timer interrupts, so periods should be several timer intervals long.
+ */
+public class EDFScheduler extends Scheduler {
+    /**
+     * Allocate a new EDF scheduler, and its fallback scheduler.
+     */
+    public EDFScheduler() {
+	fallback = (Scheduler) Lib.constructObject(
+	    Config.getString("EDFScheduler.fallback",
+			     "nachos.threads.RoundRobinScheduler"));
+	maxUtilization = Config.getDouble("EDFScheduler.maxUtilization", 1.0);
+    }
+
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new EDFQueue(fallback.newThreadQueue(transferPriority), false);
+    }
+
+    public ThreadQueue newReadyQueue() {
+	Lib.assertTrue(readyQueue == null);
+
+	readyQueue = new EDFQueue(fallback.newReadyQueue(), true);
+	return readyQueue;
+    }
+
+    public int getPriority(KThread thread) {
+	return fallback.getPriority(thread);
+    }
+
+    public int getEffectivePriority(KThread thread) {
+	return fallback.getEffectivePriority(thread);
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	fallback.setPriority(thread, priority);
+    }
+
+    public boolean increasePriority() {
+	return fallback.increasePriority();
+    }
+
+    public boolean decreasePriority() {
+	return fallback.decreasePriority();
+    }
+
+    /**
+     * Charge the current thread, release the jobs whose periods have started,
+     * and count the deadlines that have passed. Preempts the current thread if
+     * its budget is used up, or if a job with an earlier deadline is ready;
+     * a best-effort thread is otherwise left to the fallback scheduler.
+     *
+     * @return	<tt>true</tt> if the current thread should yield.
+     */
+    public boolean timerInterrupt() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	account();
+	checkDeadlines();
+	releaseJobs();
+
+	Job current = jobs.get(KThread.currentThread());
+	Job next = readyQueue.eligible.isEmpty()
+	    ? null : readyQueue.eligible.first();
+
+	if (current == null)
+	    return next != null || fallback.timerInterrupt();
+	if (current.remaining <= 0)
+	    return true;
+	return next != null && next.deadline < current.deadline;
+    }
+
+    public void threadSwitch(KThread previous, KThread next) {
+	account();
+	fallback.threadSwitch(previous, next);
+    }
+
+    public void threadFinished(KThread thread) {
+	Job job = jobs.remove(thread);
+	if (job != null)
+	    utilization -= job.density();
+
+	fallback.threadFinished(thread);
+    }
+
+    /**
+     * Admit the specified thread to the real-time class, if its density fits.
+     * Its first job is released at once. A real-time thread may change its
+     * own parameters; the new ones apply from its next job.
+     */
+    public boolean setRealTime(KThread thread, long period, long budget,
+			       long deadline) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+	Lib.assertTrue(budget > 0 && budget <= deadline && deadline <= period);
+
+	Job job = jobs.get(thread);
+	double density = (double) budget / deadline;
+	double others = utilization - (job == null ? 0 : job.density());
+	if (others + density > maxUtilization)
+	    return false;
+
+	utilization = others + density;
+
+	if (job == null) {
+	    job = new Job(thread);
+	    jobs.put(thread, job);
+
+	    job.nextRelease = Machine.timer().getTime();
+	    job.period = period;
+	    job.budget = budget;
+	    job.relativeDeadline = deadline;
+	    startJob(job);
+	}
+	else {
+	    job.period = period;
+	    job.budget = budget;
+	    job.relativeDeadline = deadline;
+	}
+
+	return true;
+    }
+
+    /**
+     * End the current thread's job, and sleep until its next one is released.
+     */
+    public void waitForNextPeriod() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Job job = jobs.get(KThread.currentThread());
+	if (job == null)
+	    return;
+
+	account();
+	if (!job.missed && Machine.timer().getTime() > job.deadline)
+	    missed(job);
+	job.done = true;
+
+	if (job.nextRelease <= Machine.timer().getTime()) {
+	    startJob(job);
+	    return;
+	}
+
+	releases.add(job);
+	KThread.sleep();
+    }
+
+    /**
+     * Return the number of deadlines the specified thread has missed.
+     *
+     * @param	thread	a real-time thread.
+     * @return	the number of its jobs that were late.
+     */
+    public int getDeadlineMisses(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Job job = jobs.get(thread);
+	return (job == null) ? 0 : job.misses;
+    }
+
+    /**
+     * Tests whether this module is working.
+     */
+    public static void selfTest() {
+	EDFSchedulerTest.runTest();
+    }
+
+    /**
+     * Charge the current thread, if it is real-time, for the ticks since it
+     * was last charged.
+     */
+    private void account() {
+	long now = Machine.timer().getTime();
+
+	Job job = jobs.get(KThread.currentThread());
+	if (job != null)
+	    job.remaining -= now - lastCharge;
+
+	lastCharge = now;
+    }
+
+    /**
+     * Count a miss for every job whose deadline has passed before it was done.
+     */
+    private void checkDeadlines() {
+	long now = Machine.timer().getTime();
+
+	for (Iterator<Job> i=jobs.values().iterator(); i.hasNext(); ) {
+	    Job job = i.next();
+	    if (!job.done && !job.missed && now > job.deadline)
+		missed(job);
+	}
+    }
+
+    /**
+     * Start a new job for every thread whose next period has started: wake
+     * the threads that were waiting for it, and make the ones that ran out of
+     * budget eligible again.
+     */
+    private void releaseJobs() {
+	long now = Machine.timer().getTime();
+
+	while (!releases.isEmpty() && releases.first().nextRelease <= now) {
+	    Job job = releases.pollFirst();
+	    boolean waiting = job.done;
+	    startJob(job);
+
+	    if (waiting)
+		job.thread.ready();
+	    else
+		readyQueue.eligible.add(job);
+	}
+    }
+
+    /**
+     * Release the next job of a thread. Periods that have passed entirely are
+     * skipped, and the job the thread was still running, if any, is counted
+     * as a miss if its deadline has passed.
+     */
+    private void startJob(Job job) {
+	long now = Machine.timer().getTime();
+
+	if (!job.done && !job.missed && now > job.deadline)
+	    missed(job);
+
+	while (job.nextRelease + job.period <= now)
+	    job.nextRelease += job.period;
+
+	job.deadline = job.nextRelease + job.relativeDeadline;
+	job.nextRelease += job.period;
+	job.remaining = job.budget;
+	job.done = false;
+	job.missed = false;
+    }
+
+    private void missed(Job job) {
+	job.missed = true;
+	job.misses++;
+	Machine.deadlineMissed();
+    }
+
+    /**
+     * A real-time thread, and the state of its current job.
+     */
+    private class Job {
+	Job(KThread thread) {
+	    this.thread = thread;
+	    this.id = jobCount++;
+	}
+
+	double density() {
+	    return (double) budget / relativeDeadline;
+	}
+
+	KThread thread;
+	int id;
+
+	long period, budget, relativeDeadline;
+
+	/** The absolute deadline of the current job, and the next release. */
+	long deadline, nextRelease;
+	/** The ticks of budget the current job has left. */
+	long remaining;
+	/** Whether the current job is done (there is none at first), or has
+	 * missed its deadline. */
+	boolean done = true, missed = false;
+	int misses = 0;
+    }
+
+    /**
+     * A queue that gives access to real-time threads, earliest deadline
+     * first, before any best-effort thread. The best-effort threads wait in
+     * a queue of the fallback scheduler.
+     */
+    private class EDFQueue extends ThreadQueue {
+	EDFQueue(ThreadQueue bestEffort, boolean ready) {
+	    this.bestEffort = bestEffort;
+	    this.ready = ready;
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    Job job = jobs.get(thread);
+	    if (job == null)
+		bestEffort.waitForAccess(thread);
+	    else if (ready && job.remaining <= 0)
+		releases.add(job);
+	    else
+		eligible.add(job);
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+	    Lib.assertTrue(eligible.isEmpty());
+
+	    bestEffort.acquire(thread);
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    if (ready)
+		releaseJobs();
+
+	    // a real-time thread is given access before any best-effort one,
+	    // so the best-effort queue must stop donating to the last holder
+	    Job job = eligible.pollFirst();
+	    if (job != null) {
+		bestEffort.release();
+		return job.thread;
+	    }
+
+	    return bestEffort.nextThread();
+	}
+
+	public void release() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    bestEffort.release();
+	}
+
+	public void handOff(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    bestEffort.handOff(thread);
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (Iterator<Job> i=eligible.iterator(); i.hasNext(); )
+		System.out.print(i.next().thread + " ");
+	    bestEffort.print();
+	}
+
+	private ThreadQueue bestEffort;
+	private boolean ready;
+	/** The real-time threads waiting, by deadline. */
+	TreeSet<Job> eligible = new TreeSet<Job>(new Comparator<Job>() {
+		public int compare(Job a, Job b) {
+		    if (a.deadline != b.deadline)
+			return a.deadline < b.deadline ? -1 : 1;
+		    return a.id - b.id;
+		}
+	    });
+    }
+
+    private Scheduler fallback;
+    private double maxUtilization, utilization = 0;
+
+    private EDFQueue readyQueue = null;
+    private HashMap<KThread, Job> jobs = new HashMap<KThread, Job>();
+    /**
+     * The real-time threads waiting for their next period, either because
+     * their job is done or because it ran out of budget, by release time.
+     */
+    private TreeSet<Job> releases = new TreeSet<Job>(new Comparator<Job>() {
+	    public int compare(Job a, Job b) {
+		if (a.nextRelease != b.nextRelease)
+		    return a.nextRelease < b.nextRelease ? -1 : 1;
+		return a.id - b.id;
+	    }
+	});
+
+    private long lastCharge = 0;
+    private int jobCount = 0;
+}
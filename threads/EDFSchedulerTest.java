@@ -0,0 +1,370 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A Tester for the EDFScheduler class
+ */
+public class EDFSchedulerTest {
+
+  /**
+   * Thread that holds the lock until told to give it up, and notes its effective priority once it
+   * has. It talks to the main thread through semaphores, which do not donate, so that only the
+   * lock's waiters can raise its priority.
+   */
+  private static class Holder implements Runnable {
+    public void run() {
+      lock.acquire();
+      held.V();
+      go.P();
+      lock.release();
+
+      boolean intStatus = Machine.interrupt().disable();
+      priorityAfter = ThreadedKernel.scheduler.getEffectivePriority(KThread.currentThread());
+      Machine.interrupt().restore(intStatus);
+      released.V();
+    }
+  }
+
+  /**
+   * Thread that waits for the lock, and notes when it got it.
+   */
+  private static class Waiter implements Runnable {
+
+    /* Constructor */
+    Waiter(String name) {
+      this.name = name;
+    }
+
+    public void run() {
+      boolean intStatus = Machine.interrupt().disable();
+      waiting++;
+      lock.acquire();
+      Machine.interrupt().restore(intStatus);
+
+      order.append(name + " ");
+      lock.release();
+    }
+
+    /* My name, as noted in the order */
+    private String name;
+  }
+
+  /**
+   * A real-time thread is given a lock before the best-effort threads waiting for it. The thread
+   * that released the lock must then stop getting the priority the best-effort waiters donated to
+   * it through the fallback scheduler.
+   */
+  private static void donationTest() {
+    System.out.println("#### EDF lock hand-off test ####");
+
+    lock = new Lock();
+    held = new Semaphore(0);
+    go = new Semaphore(0);
+    released = new Semaphore(0);
+    waiting = 0;
+    order.setLength(0);
+
+    KThread holder = new KThread(new Holder()).setName("holder");
+    KThread bestEffort = new KThread(new Waiter("be")).setName("be");
+    KThread realTime = new KThread(new Waiter("rt")).setName("rt");
+
+    /* a priority that, under each donating scheduler, the waiter's default one would raise: less
+     * urgent than the default, or fewer tickets than the two of them together */
+    boolean intStatus = Machine.interrupt().disable();
+    ThreadedKernel.scheduler.setPriority(holder, 2);
+    int own = ThreadedKernel.scheduler.getPriority(holder);
+    Machine.interrupt().restore(intStatus);
+    Lib.assertTrue(realTime.setRealTime(100000, 50000, 100000));
+
+    holder.fork();
+    held.P();
+    bestEffort.fork();
+    realTime.fork();
+    while (waiting < 2)
+      KThread.yield();
+
+    intStatus = Machine.interrupt().disable();
+    int donated = ThreadedKernel.scheduler.getEffectivePriority(holder);
+    Machine.interrupt().restore(intStatus);
+
+    go.V();
+    released.P();
+    holder.join();
+    bestEffort.join();
+    realTime.join();
+
+    SelfTest.check("real-time waiter goes first (" + order.toString().trim() + ")",
+        order.toString().equals("rt be "));
+    if (donated == own)
+      System.out.println("** fallback scheduler does not donate, donation not tested");
+    else
+      SelfTest.check("holder loses the donation (" + donated + " -> " + priorityAfter + ")",
+          priorityAfter == own);
+
+    System.out.println("#### EDF lock hand-off test ends ####");
+  }
+
+  /**
+   * Run for about the given number of ticks of CPU: each time interrupts are enabled again, the
+   * clock moves on one kernel tick.
+   */
+  private static void work(long ticks) {
+    for (long i = 0; i < ticks / Stats.KernelTick; i++) {
+      boolean intStatus = Machine.interrupt().disable();
+      Machine.interrupt().restore(intStatus);
+    }
+  }
+
+  /**
+   * Return the number of deadlines the current thread has missed. A thread must ask before it
+   * finishes, since it then leaves the real-time class.
+   */
+  private static int ownMisses() {
+    boolean intStatus = Machine.interrupt().disable();
+    int misses = scheduler.getDeadlineMisses(KThread.currentThread());
+    Machine.interrupt().restore(intStatus);
+    return misses;
+  }
+
+  /**
+   * Real-time thread that runs a single long job.
+   */
+  private static class LongJob implements Runnable {
+    public void run() {
+      order.append("A< ");
+      work(longWork);
+      order.append("A> ");
+      longMisses = ownMisses();
+      longDone = true;
+    }
+  }
+
+  /**
+   * Real-time thread that runs short jobs, one each period, until the long job is done.
+   */
+  private static class ShortJobs implements Runnable {
+    public void run() {
+      while (!longDone) {
+        work(shortWork);
+        order.append("B ");
+        KThread.waitForNextPeriod();
+      }
+      shortMisses = ownMisses();
+    }
+  }
+
+  /**
+   * Two periodic threads are released together. The one with the earlier deadline runs first, and
+   * each later job of it, released while the other's long job runs, has an earlier deadline than
+   * that job, so it preempts it. Both meet all their deadlines.
+   */
+  private static void deadlineTest() {
+    System.out.println("#### EDF deadline order test ####");
+
+    order.setLength(0);
+    longDone = false;
+
+    KThread a = new KThread(new LongJob()).setName("A");
+    KThread b = new KThread(new ShortJobs()).setName("B");
+    Lib.assertTrue(a.setRealTime(30000, 15000, 30000));
+    Lib.assertTrue(b.setRealTime(5000, 1000, 5000));
+
+    a.fork();
+    b.fork();
+    a.join();
+    b.join();
+
+    String s = order.toString();
+    SelfTest.check("B's first job goes before A's (" + s.trim() + ")", s.startsWith("B A< "));
+    SelfTest.check("and B's later ones preempt it",
+        s.indexOf("A< B ") >= 0 && s.indexOf("A> ") > s.indexOf("A< B "));
+    SelfTest.check("no deadline missed (A " + longMisses + ", B " + shortMisses + ")",
+        longMisses == 0 && shortMisses == 0);
+
+    System.out.println("#### EDF deadline order test ends ####");
+  }
+
+  /**
+   * A thread is admitted only if the density of all the real-time threads stays within
+   * <tt>EDFScheduler.maxUtilization</tt>, and the density of a thread that finishes is given back.
+   */
+  private static void admissionTest() {
+    System.out.println("#### EDF admission test ####");
+
+    double maxUtilization = Config.getDouble("EDFScheduler.maxUtilization", 1.0);
+    if (maxUtilization > 1.5) {
+      System.out.println("** skipped, EDFScheduler.maxUtilization is over 1.5");
+      System.out.println("#### EDF admission test ends ####");
+      return;
+    }
+    long deadline = 10000;
+    long first = Math.round(deadline * maxUtilization * 0.6);
+    long second = Math.round(deadline * maxUtilization * 0.5);
+
+    Runnable nothing = new Runnable() {
+        public void run() {
+        }
+      };
+    KThread t1 = new KThread(nothing).setName("t1");
+    KThread t2 = new KThread(nothing).setName("t2");
+
+    boolean admitted1 = t1.setRealTime(deadline, first, deadline);
+    boolean admitted2 = t2.setRealTime(deadline, second, deadline);
+    t1.fork();
+    t1.join();
+    boolean admittedLater = t2.setRealTime(deadline, second, deadline);
+    t2.fork();
+    t2.join();
+
+    SelfTest.check("a thread of density " + (double) first / deadline + " is admitted", admitted1);
+    SelfTest.check("one of density " + (double) second / deadline + " more is refused", !admitted2);
+    SelfTest.check("and admitted once the first has finished", admittedLater);
+
+    System.out.println("#### EDF admission test ends ####");
+  }
+
+  /**
+   * Real-time thread whose one job needs several times its budget: it is run for its budget each
+   * period, and waits for the next period in between.
+   */
+  private static class Overrunner implements Runnable {
+    public void run() {
+      long start = Machine.timer().getTime();
+      work(overrunWork);
+      overrunTime = Machine.timer().getTime() - start;
+      overrunMisses = ownMisses();
+      overrunDone = true;
+    }
+  }
+
+  /**
+   * Real-time thread that keeps within its budget, one job each period, until the overrunner is
+   * done.
+   */
+  private static class Peer implements Runnable {
+    public void run() {
+      while (!overrunDone) {
+        work(peerWork);
+        KThread.waitForNextPeriod();
+      }
+      peerMisses = ownMisses();
+    }
+  }
+
+  /**
+   * A job that overruns its budget is not run again until its next period, even though its
+   * deadline is the earliest, so its peer still meets every deadline. The overrunner misses its
+   * own deadlines, and each miss is counted in the statistics.
+   */
+  private static void budgetTest() {
+    System.out.println("#### EDF budget test ####");
+
+    overrunDone = false;
+    int missesBefore = Machine.getDeadlineMisses();
+
+    KThread overrunner = new KThread(new Overrunner()).setName("overrunner");
+    KThread peer = new KThread(new Peer()).setName("peer");
+    Lib.assertTrue(overrunner.setRealTime(overrunPeriod, overrunBudget, 5000));
+    Lib.assertTrue(peer.setRealTime(overrunPeriod, 5000, overrunPeriod));
+
+    overrunner.fork();
+    peer.fork();
+    overrunner.join();
+    peer.join();
+
+    int counted = Machine.getDeadlineMisses() - missesBefore;
+    SelfTest.check("the overrunner takes " + overrunTime + " ticks for " + overrunWork
+        + " ticks of work", overrunTime >= (overrunWork / overrunBudget - 1) * overrunPeriod);
+    SelfTest.check("its peer misses no deadline (" + peerMisses + ")", peerMisses == 0);
+    SelfTest.check("its own " + overrunMisses + " misses are counted (" + counted + ")",
+        overrunMisses > 0 && counted == overrunMisses);
+
+    System.out.println("#### EDF budget test ends ####");
+  }
+
+  /**
+   * Real-time thread whose first job sleeps past its deadline, and whose second job is prompt.
+   */
+  private static class Sleeper implements Runnable {
+    public void run() {
+      ThreadedKernel.alarm.waitUntil(lateBy);
+      KThread.waitForNextPeriod();
+      KThread.waitForNextPeriod();
+      sleeperMisses = ownMisses();
+    }
+  }
+
+  /**
+   * A job that is not done by its deadline is counted as one miss, for its thread and in the
+   * statistics printed at halt.
+   */
+  private static void missTest() {
+    System.out.println("#### EDF deadline miss test ####");
+
+    int missesBefore = Machine.getDeadlineMisses();
+
+    KThread sleeper = new KThread(new Sleeper()).setName("late");
+    Lib.assertTrue(sleeper.setRealTime(10000, 1000, 2000));
+    sleeper.fork();
+    sleeper.join();
+
+    int counted = Machine.getDeadlineMisses() - missesBefore;
+    SelfTest.check("a late job is one miss (" + sleeperMisses + ", counted " + counted + ")",
+        sleeperMisses == 1 && counted == 1);
+
+    System.out.println("#### EDF deadline miss test ends ####");
+  }
+
+  /**
+   * Tests whether this module is working. Set <tt>EDFScheduler.fallback</tt> to
+   * <tt>nachos.threads.PriorityScheduler</tt> to test donation too.
+   */
+  public static void runTest() {
+    System.out.println("**** EDFScheduler testing begins ****");
+
+    if (ThreadedKernel.scheduler instanceof EDFScheduler) {
+      scheduler = (EDFScheduler) ThreadedKernel.scheduler;
+      deadlineTest();
+      admissionTest();
+      budgetTest();
+      missTest();
+      donationTest();
+    }
+    else
+      System.out.println("** skipped, ThreadedKernel.scheduler is not an EDFScheduler");
+
+    System.out.println("**** EDFScheduler testing ends ****");
+  }
+
+  /* The contended lock, and the semaphores for: the holder has it, may release it, has released
+   * it */
+  private static Lock lock;
+  private static Semaphore held, go, released;
+  /* How many waiters are waiting for the lock */
+  private static int waiting = 0;
+  /* The holder's effective priority after it released the lock */
+  private static int priorityAfter;
+  /* The order the waiters got the lock in, or the jobs ran in */
+  private static StringBuffer order = new StringBuffer();
+
+  private static EDFScheduler scheduler;
+
+  /* The work of the long job and of each short job, whether the long job is done, and how many
+   * deadlines each thread missed */
+  private static final long longWork = 10000, shortWork = 500;
+  private static boolean longDone;
+  private static int longMisses, shortMisses;
+
+  /* The overrunner's period and budget, the work of its one job, and of each of its peer's jobs */
+  private static final long overrunPeriod = 10000, overrunBudget = 2000;
+  private static final long overrunWork = 4 * overrunBudget, peerWork = 4000;
+  /* Whether the overrunner is done, how long its job took, and the deadlines each thread missed */
+  private static boolean overrunDone;
+  private static long overrunTime;
+  private static int overrunMisses, peerMisses;
+
+  /* How long the late job sleeps, past its deadline, and how many deadlines it missed */
+  private static final long lateBy = 5000;
+  private static int sleeperMisses;
+}
@@ -0,0 +1,168 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A histogram of non-negative values, with buckets in the style of
+ * HdrHistogram: exact below 16, and above that, 16 buckets for each power of
+ * two, so any value is known to within 1/16. Counts are kept for as many
+ * buckets as the largest value recorded needs.
+ */
+public class Histogram {
+    /**
+     * Allocate a new, empty histogram.
+     *
+     * @param	name	what the values are, for printing.
+     */
+    public Histogram(String name) {
+	this.name = name;
+    }
+
+    /**
+     * Record a value.
+     *
+     * @param	value	the value, which must not be negative.
+     */
+    public void record(long value) {
+	Lib.assertTrue(value >= 0);
+
+	int index = bucket(value);
+	if (index >= counts.length) {
+	    long[] newCounts = new long[Math.max(index+1, counts.length*2)];
+	    System.arraycopy(counts, 0, newCounts, 0, counts.length);
+	    counts = newCounts;
+	}
+	counts[index]++;
+
+	if (total == 0 || value < min)
+	    min = value;
+	if (value > max)
+	    max = value;
+	total++;
+	sum += value;
+    }
+
+    /** Return what the values are. */
+    public String getName() {
+	return name;
+    }
+
+    /** Return the number of values recorded. */
+    public long getCount() {
+	return total;
+    }
+
+    /** Return the smallest value recorded, or 0 if there are none. */
+    public long getMin() {
+	return min;
+    }
+
+    /** Return the largest value recorded, or 0 if there are none. */
+    public long getMax() {
+	return max;
+    }
+
+    /** Return the mean of the values recorded, or 0 if there are none. */
+    public double getMean() {
+	return (total == 0) ? 0 : (double) sum / total;
+    }
+
+    /**
+     * Return a value that at least the specified percentage of the values
+     * recorded are no greater than: the top of the bucket that percentile
+     * falls in, or the largest value, if that is smaller.
+     *
+     * @param	percentile	the percentile, from 0 to 100.
+     * @return	the value at that percentile, or 0 if there are none.
+     */
+    public long getPercentile(double percentile) {
+	if (total == 0)
+	    return 0;
+
+	long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+	long seen = 0;
+	for (int i=0; i<counts.length; i++) {
+	    seen += counts[i];
+	    if (seen >= rank)
+		return Math.min(highest(i), max);
+	}
+	return max;
+    }
+
+    /**
+     * Return a one-line summary of this histogram.
+     */
+    public String toString() {
+	return name + ": count " + total
+	    + ", min " + min
+	    + ", p50 " + getPercentile(50)
+	    + ", p90 " + getPercentile(90)
+	    + ", p99 " + getPercentile(99)
+	    + ", max " + max
+	    + ", mean " + Math.round(getMean());
+    }
+
+    /**
+     * Return the non-empty buckets as comma-separated lines of the lowest
+     * value in the bucket, the highest, and the count, for export.
+     */
+    public String toCSV() {
+	StringBuffer buffer = new StringBuffer("low,high,count\n");
+
+	for (int i=0; i<counts.length; i++) {
+	    if (counts[i] != 0)
+		buffer.append(lowest(i) + "," + highest(i) + "," + counts[i]
+			      + "\n");
+	}
+
+	return buffer.toString();
+    }
+
+    /**
+     * Return the index of the bucket for a value.
+     */
+    static int bucket(long value) {
+	if (value < subBuckets)
+	    return (int) value;
+
+	int exponent = 63 - Long.numberOfLeadingZeros(value);
+	int shift = exponent - subBucketBits;
+	return (shift+1)*subBuckets + (int) (value >>> shift) - subBuckets;
+    }
+
+    /**
+     * Return the lowest value in a bucket.
+     */
+    static long lowest(int index) {
+	if (index < subBuckets)
+	    return index;
+
+	int shift = index/subBuckets - 1;
+	return (long) (index%subBuckets + subBuckets) << shift;
+    }
+
+    /**
+     * Return the highest value in a bucket.
+     */
+    static long highest(int index) {
+	if (index < subBuckets)
+	    return index;
+
+	int shift = index/subBuckets - 1;
+	return lowest(index) + (1L << shift) - 1;
+    }
+
+    /**
+     * Tests whether this module is working.
+     */
+    public static void selfTest() {
+	HistogramTest.runTest();
+    }
+
+    private static final int subBucketBits = 4;
+    private static final int subBuckets = 1 << subBucketBits;
+
+    private String name;
+    private long[] counts = new long[subBuckets];
+    private long total = 0, sum = 0, min = 0, max = 0;
+}
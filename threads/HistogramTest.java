@@ -0,0 +1,96 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A Tester for the Histogram class
+ */
+public class HistogramTest {
+
+  /**
+   * Every value falls in a bucket that holds it and is no wider than 1/16 of it, or exactly it
+   * below 16, and each bucket starts right after the one before.
+   */
+  private static void bucketTest() {
+    System.out.println("#### Histogram bucket test ####");
+
+    boolean holds = true, narrow = true;
+    for (int shift = 0; shift < 63; shift++) {
+      long base = 1L << shift;
+      for (long offset = -2; offset <= 2; offset++) {
+        long value = base + offset;
+        if (value < 0)
+          continue;
+
+        int index = Histogram.bucket(value);
+        long low = Histogram.lowest(index), high = Histogram.highest(index);
+        holds &= (low <= value && value <= high);
+        narrow &= (value < 16) ? (low == high) : (high - low + 1 <= value / 16);
+      }
+    }
+    int last = Histogram.bucket(Long.MAX_VALUE);
+    holds &= (Histogram.highest(last) == Long.MAX_VALUE);
+
+    boolean contiguous = (Histogram.lowest(0) == 0);
+    for (int index = 1; index <= last; index++)
+      contiguous &= (Histogram.lowest(index) == Histogram.highest(index - 1) + 1);
+
+    SelfTest.check("each value falls in its bucket, up to " + Long.MAX_VALUE, holds);
+    SelfTest.check("exactly below 16, to within 1/16 above", narrow);
+    SelfTest.check("buckets 0 to " + last + " follow each other with no gaps", contiguous);
+
+    System.out.println("#### Histogram bucket test ends ####");
+  }
+
+  /**
+   * The count, smallest and largest values are exact, and percentiles are at most one bucket high.
+   */
+  private static void percentileTest() {
+    System.out.println("#### Histogram percentile test ####");
+
+    Histogram empty = new Histogram("empty");
+    SelfTest.check("an empty histogram has 0 everywhere",
+        empty.getCount() == 0 && empty.getMin() == 0 && empty.getMax() == 0
+        && empty.getPercentile(50) == 0);
+
+    Histogram small = new Histogram("small");
+    for (int value = 15; value >= 0; value--)
+      small.record(value);
+    SelfTest.check("below 16, p50 is exact (" + small.getPercentile(50) + ")",
+        small.getPercentile(50) == 7);
+
+    Histogram histogram = new Histogram("test");
+    for (int value = 1; value <= 1000; value++)
+      histogram.record(value);
+
+    SelfTest.check("count, min and max are " + histogram.getCount() + ", " + histogram.getMin()
+        + ", " + histogram.getMax(),
+        histogram.getCount() == 1000 && histogram.getMin() == 1 && histogram.getMax() == 1000);
+    SelfTest.check("mean is " + histogram.getMean(), histogram.getMean() == 500.5);
+
+    boolean close = true;
+    double[] percentiles = { 0, 1, 50, 90, 99, 99.9 };
+    for (int i = 0; i < percentiles.length; i++) {
+      long exact = Math.max(1, (long) Math.ceil(percentiles[i] * 10));
+      long value = histogram.getPercentile(percentiles[i]);
+      close &= (value >= exact && value <= exact + exact / 16);
+    }
+    SelfTest.check("p50 " + histogram.getPercentile(50) + ", p90 " + histogram.getPercentile(90)
+        + ", p99 " + histogram.getPercentile(99) + ", within 1/16 above", close);
+    SelfTest.check("p100 is the largest value", histogram.getPercentile(100) == 1000);
+
+    System.out.println("#### Histogram percentile test ends ####");
+  }
+
+  /**
+   * Tests whether this module is working.
+   */
+  public static void runTest() {
+    System.out.println("**** Histogram testing begins ****");
+
+    bucketTest();
+    percentileTest();
+
+    System.out.println("**** Histogram testing ends ****");
+  }
+}
@@ -1,7 +1,6 @@
 package nachos.threads;
 
 import nachos.machine.*;
-import java.util.LinkedList;
 /**
  * A KThread is a thread that can be used to execute Nachos kernel code. Nachos
  * allows multiple threads to run concurrently.
@@ -38,6 +37,16 @@ public class KThread {
 	return currentThread;
     }
     
+    /**
+     * Get the number of times the CPU has been dispatched to a thread, for
+     * benchmarks that count context switches.
+     *
+     * @return	the number of context switches so far.
+     */
+    public static long getSwitchCount() {
+	return numSwitches;
+    }
+
     /**
      * Allocate a new <tt>KThread</tt>. If this is the first <tt>KThread</tt>,
      * create an idle thread as well.
@@ -48,7 +57,7 @@ public class KThread {
 	    tcb = new TCB();
 	}	    
 	else {
-	    readyQueue = ThreadedKernel.scheduler.newThreadQueue(false);
+	    readyQueue = ThreadedKernel.scheduler.newReadyQueue();
 	    readyQueue.acquire(this);	    
 
 	    currentThread = this;
@@ -187,20 +196,17 @@ public class KThread {
 	Machine.interrupt().disable();
 
 	Machine.autoGrader().finishingCurrentThread();
+	ThreadedKernel.scheduler.threadFinished(currentThread);
 
 	Lib.assertTrue(toBeDestroyed == null);
 	toBeDestroyed = currentThread;
 
-    //if the threadlist has waiting threads
-	while(threadList.size()>0){
-
-	  //put thread into ready state and ready queue
-    boolean status = Machine.interrupt().disable();
-		threadList.getFirst().ready();
-    Machine.interrupt().restore(status);
-    
-		//remove thread from thread list
-		threadList.removeFirst();
+	// wake this thread's joiners, and no one else's; the last call hands
+	// back any priority they donated
+	if (currentThread.joinQueue != null) {
+	    KThread joiner;
+	    while ((joiner = currentThread.joinQueue.nextThread()) != null)
+		joiner.ready();
 	}
 
 	currentThread.status = statusFinished;
@@ -225,7 +231,8 @@ public class KThread {
      * called with interrupts disabled.
      */
     public static void yield() {
-	Lib.debug(dbgThread, "Thread yields: " + currentThread.toString());
+	if (Lib.test(dbgThread))
+	    System.out.println("Thread yields: " + currentThread.toString());
 	
 	Lib.assertTrue(currentThread.status == statusRunning);
 	
@@ -234,6 +241,11 @@ public class KThread {
 	currentThread.ready();
 
 	runNextThread();
+
+	// the idle thread only runs when no other thread is ready, so nothing
+	// can happen until the next interrupt
+	if (intStatus && currentThread == idleThread && !Lib.test(dbgThread))
+	    Machine.interrupt().idle();
 	
 	Machine.interrupt().restore(intStatus);
     }
@@ -250,7 +262,8 @@ public class KThread {
      * scheduled this thread to be destroyed by the next thread to run.
      */
     public static void sleep() {
-	Lib.debug(dbgThread, "Sleeping thread: " + currentThread.toString());
+	if (Lib.test(dbgThread))
+	    System.out.println("Sleeping thread: " + currentThread.toString());
 	
 	Lib.assertTrue(Machine.interrupt().disabled());
 
@@ -265,22 +278,26 @@ public class KThread {
      * ready queue.
      */
     public void ready() {
-	Lib.debug(dbgThread, "Ready thread: " + toString());
+	if (Lib.test(dbgThread))
+	    System.out.println("Ready thread: " + toString());
 	
 	Lib.assertTrue(Machine.interrupt().disabled());
 	Lib.assertTrue(status != statusReady);
 	
 	status = statusReady;
-	if (this != idleThread)
+	if (this != idleThread) {
+	    if (SchedulingStats.enabled)
+		SchedulingStats.ready(this);
 	    readyQueue.waitForAccess(this);
+	}
 	
 	Machine.autoGrader().readyThread(this);
     }
 
     /**
      * Waits for this thread to finish. If this thread is already finished,
-     * return immediately. This method must only be called once; the second
-     * call is not guaranteed to return. This thread must not be the current
+     * return immediately. Any number of threads may join the same thread;
+     * they are woken when it finishes. This thread must not be the current
      * thread.
      */
     public void join() {
@@ -288,22 +305,24 @@ public class KThread {
 
 	Lib.assertTrue(this != currentThread);
 
-      //if thread is already finished, return
-      if(this.status == statusFinished)
-          return;
-      
-      //add currentthread to list to wait for this thread to finish
-	    threadList.add(currentThread);
-      
-      //put currentthread to sleep
- 	    boolean status = Machine.interrupt().disable();
-      currentThread.sleep();
-      Machine.interrupt().restore(status);
-    }
+	boolean intStatus = Machine.interrupt().disable();
 
-    //linked list to hold threads to be joined
-    private static LinkedList<KThread> threadList=new LinkedList<KThread>();
+	if (status == statusFinished) {
+	    Machine.interrupt().restore(intStatus);
+	    return;
+	}
 
+	// the joiners donate their priority to this thread until it finishes
+	if (joinQueue == null) {
+	    joinQueue = ThreadedKernel.scheduler.newThreadQueue(true);
+	    joinQueue.acquire(this);
+	}
+	joinQueue.waitForAccess(currentThread);
+
+	sleep();
+
+	Machine.interrupt().restore(intStatus);
+    }
 
     /**
      * Create the idle thread. Whenever there are no threads ready to be run,
@@ -366,10 +385,16 @@ public class KThread {
 
 	currentThread.saveState();
 
-	Lib.debug(dbgThread, "Switching from: " + currentThread.toString()
-		  + " to: " + toString());
+	if (Lib.test(dbgThread))
+	    System.out.println("Switching from: " + currentThread.toString()
+			       + " to: " + toString());
+
+	ThreadedKernel.scheduler.threadSwitch(currentThread, this);
+	if (SchedulingStats.enabled)
+	    SchedulingStats.switching(currentThread, this, idleThread);
 
 	currentThread = this;
+	numSwitches++;
 
 	tcb.contextSwitch();
 
@@ -381,7 +406,8 @@ public class KThread {
      * <tt>statusRunning</tt> and check <tt>toBeDestroyed</tt>.
      */
     protected void restoreState() {
-	Lib.debug(dbgThread, "Running thread: " + currentThread.toString());
+	if (Lib.test(dbgThread))
+	    System.out.println("Running thread: " + currentThread.toString());
 	
 	Lib.assertTrue(Machine.interrupt().disabled());
 	Lib.assertTrue(this == currentThread);
@@ -438,6 +464,38 @@ public class KThread {
      }
 
 
+     /**
+      * Makes this thread a real-time thread, if the scheduler has a
+      * real-time class and can admit it: each <i>period</i> ticks, it must
+      * get <i>budget</i> ticks of CPU within <i>deadline</i> ticks. Must be
+      * called by the thread itself, or before it is forked.
+      *
+      * @return	<tt>true</tt> if the thread was admitted.
+      */
+     public boolean setRealTime(long period, long budget, long deadline) {
+         boolean intStatus = Machine.interrupt().disable();
+
+         boolean admitted =
+             ThreadedKernel.scheduler.setRealTime(this, period, budget,
+                                                  deadline);
+
+         Machine.interrupt().restore(intStatus);
+
+         return admitted;
+     }
+
+     /**
+      * Ends the current thread's job for this period, and waits for the next
+      * period to start. Returns at once for a thread that is not real-time.
+      */
+     public static void waitForNextPeriod() {
+         boolean intStatus = Machine.interrupt().disable();
+
+         ThreadedKernel.scheduler.waitForNextPeriod();
+
+         Machine.interrupt().restore(intStatus);
+     }
+
     /**
      * Tests whether this module is working.
      */
@@ -452,6 +510,13 @@ public class KThread {
 	KThreadSimpleTest.runTest();
     }
 
+    /**
+     * Measures how long context switches take.
+     */
+    public static void benchmark() {
+	ContextSwitchTest.runTest();
+    }
+
     private static final char dbgThread = 't';
 
     /**
@@ -461,6 +526,12 @@ public class KThread {
      */
     public Object schedulingState = null;
 
+    /**
+     * This thread's latency and time slice histograms, if
+     * <tt>SchedulingStats</tt> is enabled.
+     */
+    SchedulingStats.ThreadStats schedulingStats = null;
+
     private static final int statusNew = 0;
     private static final int statusReady = 1;
     private static final int statusRunning = 2;
@@ -474,6 +545,13 @@ public class KThread {
      */
     private int status = statusNew;
     private String name = "(unnamed thread)";
+    /** The threads waiting in <tt>join()</tt> for this thread to finish. */
+    private ThreadQueue joinQueue = null;
+    /**
+     * The next thread sleeping on the same <tt>Condition</tt>, which links
+     * its waiters through this field rather than allocating for them.
+     */
+    KThread conditionNext = null;
     private Runnable target;
     private TCB tcb;
 
@@ -484,6 +562,8 @@ public class KThread {
     private int id = numCreated++;
     /** Number of times the KThread constructor was called. */
     private static int numCreated = 0;
+    /** Number of times <tt>run()</tt> dispatched the CPU. */
+    private static long numSwitches = 0;
 
     private static ThreadQueue readyQueue = null;
     private static KThread currentThread = null;
@@ -60,6 +60,23 @@ public class Lock {
     Machine.interrupt().restore(intStatus);
   }
 
+  /**
+   * Make a thread that is not running wait for this lock, as if it had
+   * called <tt>acquire()</tt> and found the lock busy. When the lock is
+   * released to it, the thread is readied already holding the lock. Used by
+   * <tt>Condition2</tt> to move woken threads straight onto this lock, rather
+   * than waking them only to have them block here. Must be called with
+   * interrupts disabled, by the thread holding this lock.
+   * 
+   * @param thread the thread, which must be blocked.
+   */
+  void requeue(KThread thread) {
+    Lib.assertTrue(Machine.interrupt().disabled());
+    Lib.assertTrue(isHeldByCurrentThread());
+
+    waitQueue.waitForAccess(thread);
+  }
+
   /**
    * Test if the current thread holds this lock.
    * 
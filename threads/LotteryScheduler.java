@@ -2,7 +2,6 @@ package nachos.threads;
 
 import nachos.machine.*;
 
-import java.util.TreeSet;
 import java.util.HashSet;
 import java.util.Iterator;
 
@@ -25,6 +24,14 @@ import java.util.Iterator;
  * particular, tickets must be transferred through locks, and through joins.
  * Unlike a priority scheduler, these tickets add (as opposed to just taking
  * the maximum).
+ *
+ * <p>
+ * Each queue keeps the ticket counts of its waiting threads in a Fenwick
+ * tree, so holding a lottery, and changing the tickets of a waiting thread,
+ * take time logarithmic in the number of waiting threads. A thread's priority
+ * is its number of tickets, which it may raise or lower at any time (ticket
+ * inflation). Tickets may also be issued in a <tt>Currency</tt> of their own,
+ * which is worth a fixed number of base tickets however many it issues.
  */
 public class LotteryScheduler extends PriorityScheduler {
     /**
@@ -32,7 +39,7 @@ public class LotteryScheduler extends PriorityScheduler {
      */
     public LotteryScheduler() {
     }
-    
+
     /**
      * Allocate a new lottery thread queue.
      *
@@ -42,7 +49,580 @@ public class LotteryScheduler extends PriorityScheduler {
      * @return	a new lottery thread queue.
      */
     public ThreadQueue newThreadQueue(boolean transferPriority) {
-	// implement me
-	return null;
+	return new LotteryQueue(transferPriority);
+    }
+
+    public int getPriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return getLotteryState(thread).getPriority();
+    }
+
+    public int getEffectivePriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return getLotteryState(thread).getEffectivePriority();
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= priorityMinimum &&
+		       priority <= priorityMaximum);
+
+	getLotteryState(thread).setPriority(priority);
+    }
+
+    public boolean increasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+	int priority = getPriority(thread);
+	if (priority == priorityMaximum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority+1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
     }
+
+    public boolean decreasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+	int priority = getPriority(thread);
+	if (priority == priorityMinimum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority-1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    /**
+     * Allocate a new currency, backed by the specified number of base
+     * tickets, which issues the specified number of its own tickets. A thread
+     * holding <i>n</i> tickets in the currency competes with
+     * <i>n * backing / issued</i> base tickets.
+     *
+     * @param	backing	the number of base tickets behind the currency.
+     * @param	issued	the number of tickets the currency issues.
+     * @return	the new currency.
+     */
+    public Currency newCurrency(long backing, long issued) {
+	return new Currency(backing, issued);
+    }
+
+    /**
+     * Make the tickets of the specified thread count in the specified
+     * currency, or in base tickets if <tt>currency</tt> is <tt>null</tt>.
+     *
+     * @param	thread		the thread whose tickets to revalue.
+     * @param	currency	the currency its tickets are in.
+     */
+    public void setCurrency(KThread thread, Currency currency) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	getLotteryState(thread).setCurrency(currency);
+    }
+
+    /**
+     * Take a finishing thread out of its currency, so that revaluing the
+     * currency no longer visits it.
+     */
+    public void threadFinished(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	LotteryState state = (LotteryState) thread.schedulingState;
+	if (state != null && state.currency != null)
+	    state.setCurrency(null);
+    }
+
+    /**
+     * Tests whether this module is working.
+     */
+    public static void selfTest() {
+	LotterySchedulerTest.runTest();
+    }
+
+    /**
+     * The default number of tickets for a new thread. Do not change this
+     * value.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum number of tickets that a thread can have. Do not change
+     * this value.
+     */
+    public static final int priorityMinimum = 1;
+    /**
+     * The maximum number of tickets that a thread can have. Do not change
+     * this value.
+     */
+    public static final int priorityMaximum = Integer.MAX_VALUE;
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected LotteryState getLotteryState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new LotteryState(thread);
+
+	return (LotteryState) thread.schedulingState;
+    }
+
+    /**
+     * A kind of ticket. A currency is worth a fixed number of base tickets,
+     * shared among the tickets it issues, so inflating the tickets of one
+     * thread in a currency takes nothing from threads funded by other
+     * currencies. Changing the backing or the issue revalues every thread
+     * that holds the currency.
+     */
+    public class Currency {
+	Currency(long backing, long issued) {
+	    Lib.assertTrue(backing >= 0 && issued > 0);
+
+	    this.backing = backing;
+	    this.issued = issued;
+	}
+
+	/**
+	 * Change the number of base tickets behind this currency. Must be
+	 * called with interrupts disabled.
+	 *
+	 * @param	backing	the new number of base tickets.
+	 */
+	public void setBacking(long backing) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+	    Lib.assertTrue(backing >= 0);
+
+	    this.backing = backing;
+	    revalue();
+	}
+
+	/**
+	 * Change the number of tickets this currency issues. Must be called
+	 * with interrupts disabled.
+	 *
+	 * @param	issued	the new number of tickets.
+	 */
+	public void setIssued(long issued) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+	    Lib.assertTrue(issued > 0);
+
+	    this.issued = issued;
+	    revalue();
+	}
+
+	/**
+	 * Return what the specified number of tickets in this currency is
+	 * worth in base tickets. A thread is always worth at least one
+	 * ticket, so that it cannot be starved outright.
+	 */
+	long value(long tickets) {
+	    return Math.max(1, tickets * backing / issued);
+	}
+
+	private void revalue() {
+	    for (Iterator<LotteryState> i=holders.iterator(); i.hasNext(); )
+		i.next().revalue();
+	}
+
+	private long backing, issued;
+	/** The threads whose tickets are in this currency, until they finish. */
+	private HashSet<LotteryState> holders = new HashSet<LotteryState>();
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that holds a lottery among its waiting threads.
+     *
+     * <p>
+     * Each waiting thread occupies a slot, and a Fenwick tree over the slots
+     * holds the prefix sums of their tickets. The winning ticket is found by
+     * descending the tree, and a change in one thread's tickets updates the
+     * log <i>n</i> sums that cover its slot. Freed slots are reused, and the
+     * tree doubles when all of them are taken.
+     */
+    protected class LotteryQueue extends ThreadQueue {
+	LotteryQueue(boolean transferPriority) {
+	    this.transferPriority = transferPriority;
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    getLotteryState(thread).waitForAccess(this);
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+	    Lib.assertTrue(size == 0);
+
+	    getLotteryState(thread).acquire(this);
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    // the old owner no longer gets this queue's tickets, the winner's
+	    // included
+	    if (owner != null)
+		owner.release(this);
+
+	    LotteryState winner = draw();
+	    if (winner == null)
+		return null;
+
+	    remove(winner);
+	    winner.acquire(this);
+	    return winner.thread;
+	}
+
+	public void release() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    // the waiting threads stop funding the owner
+	    if (owner != null)
+		owner.release(this);
+	}
+
+	public void handOff(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    // the waiting threads fund the new owner instead of the old one
+	    if (owner != null)
+		owner.release(this);
+
+	    getLotteryState(thread).acquire(this);
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (int i=1; i<=capacity; i++) {
+		if (slots[i] != null)
+		    System.out.print(slots[i].thread + " ");
+	    }
+	}
+
+	/**
+	 * Return the number of tickets this queue transfers to its owner: the
+	 * total held by the threads waiting in it.
+	 */
+	long donation() {
+	    return total;
+	}
+
+	/**
+	 * Put a thread in a free slot, holding its effective tickets.
+	 *
+	 * @param	state	the scheduling state of the thread.
+	 */
+	void add(LotteryState state) {
+	    // a thread can only wait in one queue at a time
+	    Lib.assertTrue(state.waitingOn == null);
+
+	    if (free == 0) {
+		if (size == capacity)
+		    grow();
+		freeSlots[free++] = size+1;
+	    }
+
+	    int slot = freeSlots[--free];
+	    slots[slot] = state;
+	    state.waitingOn = this;
+	    state.slot = slot;
+	    size++;
+
+	    update(slot, state.effective);
+	}
+
+	/**
+	 * Take a thread out of its slot.
+	 *
+	 * @param	state	the scheduling state of the thread.
+	 */
+	void remove(LotteryState state) {
+	    Lib.assertTrue(state.waitingOn == this);
+
+	    update(state.slot, -state.effective);
+
+	    slots[state.slot] = null;
+	    freeSlots[free++] = state.slot;
+	    size--;
+	    state.waitingOn = null;
+	}
+
+	/**
+	 * Add to the sums covering a slot.
+	 *
+	 * @param	slot	the slot whose tickets changed.
+	 * @param	delta	the change in its tickets.
+	 */
+	void update(int slot, long delta) {
+	    for (int i=slot; i<=capacity; i+=i&-i)
+		tree[i] += delta;
+	    total += delta;
+	}
+
+	/**
+	 * Hold a lottery, and return the waiting thread holding the winning
+	 * ticket, or <tt>null</tt> if none is waiting. The winner stays in the
+	 * queue.
+	 */
+	LotteryState draw() {
+	    if (size == 0)
+		return null;
+
+	    long ticket = (long) (Lib.random() * total);
+	    if (ticket >= total)
+		ticket = total-1;
+
+	    // find the first slot whose prefix sum exceeds the ticket
+	    int slot = 0;
+	    for (int step=Integer.highestOneBit(capacity); step>0; step>>=1) {
+		if (slot+step <= capacity && tree[slot+step] <= ticket) {
+		    slot += step;
+		    ticket -= tree[slot];
+		}
+	    }
+
+	    Lib.assertTrue(slots[slot+1] != null);
+	    return slots[slot+1];
+	}
+
+	/**
+	 * Double the number of slots, and rebuild the tree in linear time.
+	 */
+	private void grow() {
+	    int newCapacity = capacity*2;
+
+	    LotteryState[] newSlots = new LotteryState[newCapacity+1];
+	    System.arraycopy(slots, 0, newSlots, 0, capacity+1);
+	    int[] newFreeSlots = new int[newCapacity];
+	    System.arraycopy(freeSlots, 0, newFreeSlots, 0, free);
+
+	    long[] newTree = new long[newCapacity+1];
+	    for (int i=1; i<=newCapacity; i++) {
+		if (newSlots[i] != null)
+		    newTree[i] += newSlots[i].effective;
+		int parent = i + (i&-i);
+		if (parent <= newCapacity)
+		    newTree[parent] += newTree[i];
+	    }
+
+	    capacity = newCapacity;
+	    slots = newSlots;
+	    freeSlots = newFreeSlots;
+	    tree = newTree;
+	}
+
+	/**
+	 * <tt>true</tt> if this queue should transfer tickets from waiting
+	 * threads to the owning thread.
+	 */
+	public boolean transferPriority;
+
+	/*
+	 * slots[1..capacity] hold the waiting threads, and tree[] the Fenwick
+	 * sums of their effective tickets. Slots above size+free have never
+	 * been used; freeSlots[0..free-1] lists the others that are empty.
+	 */
+	private int capacity = 4, size = 0, free = 0;
+	private LotteryState[] slots = new LotteryState[capacity+1];
+	private int[] freeSlots = new int[capacity];
+	private long[] tree = new long[capacity+1];
+	private long total = 0;
+
+	/**
+	 * The thread that has access to the resource, if this queue transfers
+	 * tickets. Its effective tickets include all of this queue's.
+	 */
+	LotteryState owner = null;
+    }
+
+    /**
+     * The scheduling state of a thread under the lottery scheduler: its own
+     * tickets, what they are worth, and the tickets transferred to it.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    protected class LotteryState {
+	/**
+	 * Allocate a new <tt>LotteryState</tt> object and associate it with
+	 * the specified thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public LotteryState(KThread thread) {
+	    this.thread = thread;
+	    this.priority = priorityDefault;
+	    this.value = priorityDefault;
+	    this.effective = priorityDefault;
+	}
+
+	/**
+	 * Return the number of tickets the associated thread holds.
+	 *
+	 * @return	the number of tickets the associated thread holds.
+	 */
+	public int getPriority() {
+	    return priority;
+	}
+
+	/**
+	 * Return the effective tickets of the associated thread, in base
+	 * tickets: the value of its own tickets, plus the tickets of every
+	 * thread waiting in a queue it owns. Saturates at
+	 * <tt>Integer.MAX_VALUE</tt>.
+	 *
+	 * @return	the effective tickets of the associated thread.
+	 */
+	public int getEffectivePriority() {
+	    return (int) Math.min(effective, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Set the number of tickets the associated thread holds.
+	 *
+	 * @param	priority	the new number of tickets.
+	 */
+	public void setPriority(int priority) {
+	    this.priority = priority;
+	    revalue();
+	}
+
+	/**
+	 * Make the tickets of the associated thread count in a currency, or
+	 * in base tickets if <tt>currency</tt> is <tt>null</tt>.
+	 *
+	 * @param	currency	the currency its tickets are in.
+	 */
+	public void setCurrency(Currency currency) {
+	    if (this.currency != null)
+		this.currency.holders.remove(this);
+	    this.currency = currency;
+	    if (currency != null)
+		currency.holders.add(this);
+
+	    revalue();
+	}
+
+	/**
+	 * Recompute what the associated thread's own tickets are worth, and
+	 * pass any change on.
+	 */
+	void revalue() {
+	    long value = (currency == null) ? priority : currency.value(priority);
+
+	    long delta = value - this.value;
+	    this.value = value;
+	    transfer(delta);
+	}
+
+	/**
+	 * Add to the effective tickets of the associated thread, and to those
+	 * of every thread it is, directly or through a chain of lock holders,
+	 * transferring its tickets to. Each step updates one slot of one
+	 * queue, so the cost is the length of the chain times log <i>n</i>.
+	 *
+	 * @param	delta	the change in effective tickets.
+	 */
+	void transfer(long delta) {
+	    // a waits-for cycle is a deadlock; don't spin around it
+	    int stamp = ++transferCount;
+
+	    for (LotteryState state=this; state!=null && delta!=0; ) {
+		if (state.transferStamp == stamp)
+		    return;
+		state.transferStamp = stamp;
+
+		state.effective += delta;
+
+		LotteryQueue queue = state.waitingOn;
+		if (queue == null)
+		    return;
+
+		queue.update(state.slot, delta);
+		state = queue.transferPriority ? queue.owner : null;
+	    }
+	}
+
+	/**
+	 * Called when the associated thread has acquired access to whatever
+	 * is guarded by <tt>waitQueue</tt>. If the queue transfers tickets,
+	 * the threads still waiting in it now fund this thread.
+	 *
+	 * @param	waitQueue	the queue.
+	 */
+	public void acquire(LotteryQueue waitQueue) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    if (!waitQueue.transferPriority)
+		return;
+
+	    Lib.assertTrue(waitQueue.owner == null);
+	    waitQueue.owner = this;
+	    transfer(waitQueue.donation());
+	}
+
+	/**
+	 * Called when the associated thread gives up access to whatever is
+	 * guarded by <tt>waitQueue</tt>, so that the waiting threads no longer
+	 * fund it.
+	 *
+	 * @param	waitQueue	the queue.
+	 */
+	public void release(LotteryQueue waitQueue) {
+	    Lib.assertTrue(waitQueue.owner == this);
+
+	    waitQueue.owner = null;
+	    transfer(-waitQueue.donation());
+	}
+
+	/**
+	 * Called when the associated thread waits for access to whatever is
+	 * guarded by <tt>waitQueue</tt>. Its tickets enter the lottery, and
+	 * fund the owner if the queue transfers tickets.
+	 *
+	 * @param	waitQueue	the queue.
+	 */
+	public void waitForAccess(LotteryQueue waitQueue) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    waitQueue.add(this);
+
+	    if (waitQueue.transferPriority && waitQueue.owner != null)
+		waitQueue.owner.transfer(effective);
+	}
+
+	/** The thread with which this object is associated. */
+	protected KThread thread;
+	/** The number of tickets the associated thread holds. */
+	protected int priority;
+	/** The currency they are in, or <tt>null</tt> for base tickets. */
+	protected Currency currency = null;
+	/** What they are worth in base tickets. */
+	protected long value;
+	/** Their value plus the tickets transferred to the thread. */
+	protected long effective;
+
+	/** The queue the associated thread is waiting in, if any. */
+	protected LotteryQueue waitingOn = null;
+	/** Its slot in that queue. */
+	protected int slot;
+
+	private int transferStamp = 0;
+    }
+
+    private int transferCount = 0;
 }
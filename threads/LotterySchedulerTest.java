@@ -0,0 +1,156 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A Tester for the LotteryScheduler class
+ */
+public class LotterySchedulerTest {
+
+  /**
+   * Make a thread that is never forked, for the tests to queue directly.
+   */
+  private static KThread thread(String name, int tickets) {
+    KThread thread = new KThread(null).setName(name);
+    scheduler.setPriority(thread, tickets);
+    return thread;
+  }
+
+  /**
+   * Two threads with 3:1 tickets must win about 3:1 of the lotteries held among them. The threads
+   * never run: the test holds the lotteries itself, the way the ready queue is used.
+   */
+  private static void ratioTest() {
+    System.out.println("#### Lottery ratio test ####");
+
+    boolean intStatus = Machine.interrupt().disable();
+
+    ThreadQueue queue = scheduler.newThreadQueue(false);
+    KThread a = thread("A", 3 * tickets);
+    KThread b = thread("B", tickets);
+    queue.waitForAccess(a);
+    queue.waitForAccess(b);
+
+    int wins = 0;
+    for (int i = 0; i < draws; i++) {
+      KThread winner = queue.nextThread();
+      if (winner == a)
+        wins++;
+      queue.waitForAccess(winner);
+    }
+
+    Machine.interrupt().restore(intStatus);
+
+    /* within about 4 standard deviations of 3/4 of the draws */
+    double share = (double) wins / draws;
+    SelfTest.check("A wins " + wins + " of " + draws, Math.abs(share - 0.75) <= 0.03);
+
+    System.out.println("#### Lottery ratio test ends ####");
+  }
+
+  /**
+   * Tickets in a currency are worth their share of its backing, and change value with it. A
+   * thread leaves its currency when it finishes.
+   */
+  private static void currencyTest() {
+    System.out.println("#### Lottery currency test ####");
+
+    boolean intStatus = Machine.interrupt().disable();
+
+    LotteryScheduler.Currency currency = scheduler.newCurrency(100, 10);
+    KThread a = thread("A", 5);
+    scheduler.setCurrency(a, currency);
+    int valued = scheduler.getEffectivePriority(a);
+    currency.setBacking(200);
+    int backed = scheduler.getEffectivePriority(a);
+    currency.setIssued(40);
+    int issued = scheduler.getEffectivePriority(a);
+
+    Machine.interrupt().restore(intStatus);
+
+    SelfTest.check("5 of 10 tickets backed by 100 are worth 50 (" + valued + ")", valued == 50);
+    SelfTest.check("backed by 200, 100 (" + backed + ")", backed == 100);
+    SelfTest.check("5 of 40, 25 (" + issued + ")", issued == 25);
+
+    KThread finished = new KThread(new Runnable() {
+        public void run() {
+        }
+      }).setName("finished");
+    intStatus = Machine.interrupt().disable();
+    scheduler.setCurrency(finished, currency);
+    Machine.interrupt().restore(intStatus);
+    finished.fork();
+    finished.join();
+    SelfTest.check("a finished thread leaves its currency",
+        scheduler.getLotteryState(finished).currency == null);
+
+    System.out.println("#### Lottery currency test ends ####");
+  }
+
+  /**
+   * Tickets transfer along a chain of queues that transfer them, and add up: X holds the first
+   * queue, Y waits in it while holding the second, and Z waits in the second. A change in Z's
+   * tickets reaches X, and handing a queue to its waiter takes back what that waiter gave.
+   */
+  private static void donationTest() {
+    System.out.println("#### Lottery donation test ####");
+
+    boolean intStatus = Machine.interrupt().disable();
+
+    ThreadQueue first = scheduler.newThreadQueue(true);
+    ThreadQueue second = scheduler.newThreadQueue(true);
+    KThread x = thread("X", 1);
+    KThread y = thread("Y", 2);
+    KThread z = thread("Z", 10);
+
+    first.acquire(x);
+    second.acquire(y);
+    first.waitForAccess(y);
+    second.waitForAccess(z);
+    int chained = scheduler.getEffectivePriority(x);
+
+    scheduler.setPriority(z, 20);
+    int inflated = scheduler.getEffectivePriority(x);
+
+    second.nextThread();
+    int handedOn = scheduler.getEffectivePriority(x);
+
+    first.nextThread();
+    int released = scheduler.getEffectivePriority(x);
+    int holding = scheduler.getEffectivePriority(y);
+
+    Machine.interrupt().restore(intStatus);
+
+    SelfTest.check("X gets Y's and Z's tickets (" + chained + ")", chained == 1 + 2 + 10);
+    SelfTest.check("and Z's inflation (" + inflated + ")", inflated == 1 + 2 + 20);
+    SelfTest.check("not Z's once Z holds the second queue (" + handedOn + ")", handedOn == 1 + 2);
+    SelfTest.check("nor Y's once Y holds the first (" + released + ", Y " + holding + ")",
+        released == 1 && holding == 2);
+
+    System.out.println("#### Lottery donation test ends ####");
+  }
+
+  /**
+   * Tests whether this module is working.
+   */
+  public static void runTest() {
+    System.out.println("**** LotteryScheduler testing begins ****");
+
+    if (ThreadedKernel.scheduler instanceof LotteryScheduler) {
+      scheduler = (LotteryScheduler) ThreadedKernel.scheduler;
+      ratioTest();
+      currencyTest();
+      donationTest();
+    }
+    else {
+      System.out.println("** skipped, ThreadedKernel.scheduler is not a LotteryScheduler");
+    }
+
+    System.out.println("**** LotteryScheduler testing ends ****");
+  }
+
+  private static LotteryScheduler scheduler;
+
+  private static final int tickets = 100;
+  private static final int draws = 4000;
+}
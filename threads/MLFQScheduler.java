@@ -0,0 +1,294 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * A multi-level feedback queue scheduler.
+ *
+ * <p>
+ * Threads are kept at one of several levels, level 0 being the most urgent;
+ * within a level, access is given first-come first-serve. Every thread starts
+ * at level 0. The scheduler learns which threads are CPU-bound from the timer:
+ * a thread that is running when the timer interrupts is charged for one
+ * interrupt, and once it has been charged for the quantum of its level, it is
+ * preempted and moves down a level. Each level's quantum is twice that of the
+ * level above. A thread that mostly blocks, in <tt>SynchConsole</tt> or the
+ * file system, is rarely running when the timer interrupts, so it stays near
+ * the top and runs soon after it wakes.
+ *
+ * <p>
+ * The charge is kept while a thread blocks, so a thread cannot stay at a level
+ * by yielding just before its quantum runs out. To keep the lower levels from
+ * starving, every thread is periodically boosted back to level 0.
+ *
+ * <p>
+ * The current thread is also preempted, before its quantum is up, when a
+ * thread at a more urgent level is ready to run. This scheduler does not
+ * donate priority; a thread left at a low level holding a lock gets its turn
+ * at the next boost, at the latest.
+ *
+ * <p>
+ * The number of levels, the top level's quantum, and the time between boosts
+ * (both in timer interrupts) are set by <tt>MLFQScheduler.levels</tt>,
+ * <tt>MLFQScheduler.quantum</tt> and <tt>MLFQScheduler.boostInterval</tt>.
+ */
+public class MLFQScheduler extends Scheduler {
+    /**
+     * Allocate a new MLFQ scheduler.
+     */
+    public MLFQScheduler() {
+	levels = Config.getInteger("MLFQScheduler.levels", 3);
+	quantum = Config.getInteger("MLFQScheduler.quantum", 1);
+	boostInterval = Config.getInteger("MLFQScheduler.boostInterval", 100);
+
+	Lib.assertTrue(levels >= 1 && levels <= 30 && quantum >= 1);
+    }
+
+    /**
+     * Allocate a new MLFQ thread queue.
+     *
+     * @param	transferPriority	ignored. This scheduler does not
+     *					donate priority.
+     * @return	a new MLFQ thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new FeedbackQueue();
+    }
+
+    /**
+     * Allocate the ready queue, and remember it so that the timer can tell
+     * whether a more urgent thread is waiting to run.
+     *
+     * @return	a new MLFQ thread queue.
+     */
+    public ThreadQueue newReadyQueue() {
+	Lib.assertTrue(readyQueue == null);
+
+	readyQueue = new FeedbackQueue();
+	return readyQueue;
+    }
+
+    /**
+     * Charge the current thread for a timer interrupt, and boost every thread
+     * if it is time to. The current thread is preempted when its quantum is
+     * used up, which also moves it down a level, or when a thread at a more
+     * urgent level is ready. The charge is for the time before the interrupt,
+     * so it is made before the boost, which leaves every thread a fresh
+     * quantum.
+     *
+     * @return	<tt>true</tt> if the current thread should yield.
+     */
+    public boolean timerInterrupt() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	boolean preempt = false;
+
+	ThreadState state = getThreadState(KThread.currentThread());
+	if (++state.used >= quantum << state.level) {
+	    if (state.level < levels-1)
+		state.level++;
+	    state.used = 0;
+	    preempt = true;
+	}
+
+	if (boostInterval > 0 && ++interrupts % boostInterval == 0)
+	    boost++;
+
+	state = getThreadState(KThread.currentThread());
+	return preempt ||
+	    (readyQueue != null && readyQueue.mostUrgent() < state.level);
+    }
+
+    /**
+     * Return the level of the specified thread.
+     */
+    public int getPriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return getThreadState(thread).level;
+    }
+
+    /**
+     * Return the level of the specified thread. There is no donation, so this
+     * is the same as <tt>getPriority()</tt>.
+     */
+    public int getEffectivePriority(KThread thread) {
+	return getPriority(thread);
+    }
+
+    /**
+     * Move the specified thread to a level, with a fresh quantum. A thread
+     * that is already waiting in a queue keeps its place there.
+     */
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= 0 && priority < levels);
+
+	ThreadState state = getThreadState(thread);
+	state.level = priority;
+	state.used = 0;
+    }
+
+    public boolean increasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+	int priority = getPriority(thread);
+	if (priority == 0) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority-1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    public boolean decreasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+	int priority = getPriority(thread);
+	if (priority == levels-1) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority+1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    /**
+     * Tests whether this module is working.
+     */
+    public static void selfTest() {
+	MLFQSchedulerTest.runTest();
+    }
+
+    /**
+     * Return the scheduling state of the specified thread, moved back to
+     * level 0 if there has been a boost since it was last looked at.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new ThreadState();
+
+	ThreadState state = (ThreadState) thread.schedulingState;
+	if (state.boost != boost) {
+	    state.boost = boost;
+	    state.level = 0;
+	    state.used = 0;
+	}
+
+	return state;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> with one FIFO per level.
+     */
+    private class FeedbackQueue extends ThreadQueue {
+	FeedbackQueue() {
+	    fifos = new ArrayList<ArrayDeque<KThread>>(levels);
+	    for (int i=0; i<levels; i++)
+		fifos.add(new ArrayDeque<KThread>());
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    catchUp();
+	    fifos.get(getThreadState(thread).level).add(thread);
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    catchUp();
+	    Lib.assertTrue(mostUrgent() == levels);
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    int level = mostUrgent();
+	    if (level == levels)
+		return null;
+
+	    return fifos.get(level).removeFirst();
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    catchUp();
+	    for (int level=0; level<levels; level++) {
+		for (Iterator<KThread> i=fifos.get(level).iterator(); i.hasNext(); )
+		    System.out.print(i.next() + " ");
+	    }
+	}
+
+	/**
+	 * Return the most urgent level with a thread waiting, or
+	 * <tt>levels</tt> if none is.
+	 */
+	int mostUrgent() {
+	    catchUp();
+
+	    int level = 0;
+	    while (level < levels && fifos.get(level).isEmpty())
+		level++;
+	    return level;
+	}
+
+	/**
+	 * If there has been a boost since this queue was last used, move
+	 * every waiting thread to level 0, keeping the more urgent ones first.
+	 */
+	private void catchUp() {
+	    if (boost == queueBoost)
+		return;
+	    queueBoost = boost;
+
+	    for (int level=1; level<levels; level++) {
+		fifos.get(0).addAll(fifos.get(level));
+		fifos.get(level).clear();
+	    }
+	}
+
+	private ArrayList<ArrayDeque<KThread>> fifos;
+	private int queueBoost = boost;
+    }
+
+    /**
+     * The scheduling state of a thread: its level, and how many timer
+     * interrupts it has been charged for there.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    protected class ThreadState {
+	/** The level of the associated thread. */
+	protected int level = 0;
+	/** The timer interrupts it has been charged for at that level. */
+	protected int used = 0;
+	/** The boost it was last brought up to date with. */
+	protected int boost = MLFQScheduler.this.boost;
+    }
+
+    private int levels, quantum, boostInterval;
+
+    private FeedbackQueue readyQueue = null;
+    /** Timer interrupts so far, and boosts so far. */
+    private long interrupts = 0;
+    private int boost = 0;
+}
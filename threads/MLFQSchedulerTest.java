@@ -0,0 +1,126 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A Tester for the MLFQScheduler class
+ */
+public class MLFQSchedulerTest {
+
+  /**
+   * Return the level of a thread.
+   */
+  private static int level(KThread thread) {
+    boolean intStatus = Machine.interrupt().disable();
+    int level = ThreadedKernel.scheduler.getPriority(thread);
+    Machine.interrupt().restore(intStatus);
+    return level;
+  }
+
+  /**
+   * CPU-bound thread: spins, so that it is running whenever the timer interrupts, for long enough
+   * to be demoted to the bottom level and boosted back to the top, wherever the boosts fall.
+   */
+  private static class Hog implements Runnable {
+    public void run() {
+      long start = Machine.timer().getTime();
+
+      while (Machine.timer().getTime() - start < hogTicks) {
+        int level = level(KThread.currentThread());
+        if (level == levels - 1 && !demoted) {
+          demoted = true;
+          demotedAt = Machine.timer().getTime() - start;
+        }
+        else if (level == 0 && demoted && !boosted) {
+          boosted = true;
+          boostedAt = Machine.timer().getTime() - start;
+        }
+      }
+      hogDone = true;
+    }
+  }
+
+  /**
+   * Thread that mostly sleeps: wakes up now and then, notes its level and the hog's, and goes back
+   * to sleep, so it is rarely running when the timer interrupts.
+   */
+  private static class Sleeper implements Runnable {
+    Sleeper(KThread hog) {
+      this.hog = hog;
+    }
+
+    public void run() {
+      while (!hogDone) {
+        ThreadedKernel.alarm.waitUntil(sleepTicks);
+        wakes++;
+        ownLevels += level(KThread.currentThread());
+        hogLevels += level(hog);
+      }
+    }
+
+    private KThread hog;
+  }
+
+  /**
+   * A CPU-bound thread is moved down a level each time it uses up its quantum, until it reaches
+   * the bottom, and is moved back to the top by the next boost. A thread that sleeps between short
+   * bursts is rarely charged, and stays well above it on the whole.
+   */
+  private static void feedbackTest() {
+    System.out.println("#### MLFQ demotion and boost test ####");
+
+    demoted = boosted = hogDone = false;
+    wakes = 0;
+    ownLevels = hogLevels = 0;
+
+    KThread hog = new KThread(new Hog()).setName("hog");
+    KThread sleeper = new KThread(new Sleeper(hog)).setName("sleeper");
+    hog.fork();
+    sleeper.fork();
+    hog.join();
+    sleeper.join();
+
+    SelfTest.check("the hog sinks to level " + (levels - 1) + " (after " + demotedAt + " ticks)",
+        demoted);
+    SelfTest.check("and is boosted back to level 0 (after " + boostedAt + " ticks)", boosted);
+    /* the sleeper is charged now and then, when the timer interrupts its short bursts, so it is
+     * not always at level 0, but it stays well above the hog */
+    SelfTest.check("over " + wakes + " wake ups, the sleeper's levels add up to " + ownLevels
+        + ", the hog's to " + hogLevels, wakes > 0 && ownLevels * 3 <= hogLevels * 2);
+
+    System.out.println("#### MLFQ demotion and boost test ends ####");
+  }
+
+  /**
+   * Tests whether this module is working.
+   */
+  public static void runTest() {
+    System.out.println("**** MLFQScheduler testing begins ****");
+
+    levels = Config.getInteger("MLFQScheduler.levels", 3);
+    int boostInterval = Config.getInteger("MLFQScheduler.boostInterval", 100);
+
+    if (!(ThreadedKernel.scheduler instanceof MLFQScheduler))
+      System.out.println("** skipped, ThreadedKernel.scheduler is not an MLFQScheduler");
+    else if (levels < 2 || boostInterval <= 0)
+      System.out.println("** skipped, needs 2 levels or more, and boosts");
+    else {
+      /* long enough for two boosts, so one falls after the hog reaches the bottom */
+      hogTicks = 2L * boostInterval * Stats.TimerTicks * 11 / 10;
+      feedbackTest();
+    }
+
+    System.out.println("**** MLFQScheduler testing ends ****");
+  }
+
+  /* The levels the scheduler has, and how long the hog may spin */
+  private static int levels;
+  private static long hogTicks;
+  /* Whether the hog reached the bottom level and came back to the top, and when */
+  private static boolean demoted, boosted, hogDone;
+  private static long demotedAt, boostedAt;
+  /* How often the sleeper woke, and the sum of its levels and of the hog's when it did */
+  private static int wakes, ownLevels, hogLevels;
+
+  private static final int sleepTicks = 2000;
+}
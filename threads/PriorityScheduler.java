@@ -131,14 +131,15 @@ public class PriorityScheduler extends Scheduler {
 	public void waitForAccess(KThread thread) {
 	    Lib.assertTrue(Machine.interrupt().disabled());
       associatedThread = thread;
-      waitQueue.add(associatedThread);
+      getThreadState(associatedThread).waitForAccess(this);
 	}
 
         /* print(): Prints the priority queue, for potential debugging 
          */
 	public void print() {
-      for (Iterator i=waitQueue.iterator(); i.hasNext(); ) {
-        System.out.print((KThread) i.next() + " ");
+      for (int level=priorityMinimum; level<=priorityMaximum; level++) {
+        for (ThreadState s=head[level]; s!=null; s=s.nextWaiting)
+          System.out.print(s.thread + " ");
       }
     }
 
@@ -149,7 +150,7 @@ public class PriorityScheduler extends Scheduler {
          */
 	public void acquire(KThread thread) {
 	    Lib.assertTrue(Machine.interrupt().disabled());
-      Lib.assertTrue(waitQueue.size()==0);
+      Lib.assertTrue(occupied==0);
       associatedThread = thread;
       getThreadState(associatedThread).acquire(this); //for Q2
 	}
@@ -159,13 +160,44 @@ public class PriorityScheduler extends Scheduler {
          */
 	public KThread nextThread() {
 	    Lib.assertTrue(Machine.interrupt().disabled());
-      if (waitQueue.isEmpty()){
+      ThreadState next = first();
+      if (next != null)
+        remove(next);
+
+      // the old owner no longer gets this queue's donation
+      if (owner != null)
+        owner.release(this);
+
+      if (next == null){
         associatedThread=null;
         return null;
       }
-      associatedThread=waitQueue.peek();
+      associatedThread=next.thread;
       getThreadState(associatedThread).acquire(this); //for Q2
-      return waitQueue.poll();  //return next thread
+      return associatedThread;  //return next thread
+	}
+
+        /**
+         * The owner gave up access, but not to a waiting thread: stop
+         * donating to it
+         */
+	public void release() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+      if (owner != null)
+        owner.release(this);
+      associatedThread = null;
+	}
+
+        /**
+         * The specified thread was given access while the waiting threads
+         * go on waiting: they donate to it instead of the old owner
+         */
+	public void handOff(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+      if (owner != null)
+        owner.release(this);
+      associatedThread = thread;
+      getThreadState(associatedThread).acquire(this);
 	}
 
 	/**
@@ -177,9 +209,81 @@ public class PriorityScheduler extends Scheduler {
 	 */
 	protected KThread pickNextThread() {
         Lib.assertTrue(Machine.interrupt().disabled());
-        if (waitQueue.isEmpty())
+        ThreadState next = first();  //dont change the queue
+        if (next == null)
           return null;
-        return waitQueue.peek();  //dont change the queue
+        return next.thread;
+	}
+
+	/**
+	 * Append a thread to the FIFO for its effective priority.
+	 *
+	 * @param	state	the scheduling state of the thread.
+	 */
+	void add(ThreadState state) {
+	    // a thread can only wait in one queue at a time
+	    Lib.assertTrue(state.waitingOn == null);
+
+	    int level = state.getEffectivePriority();
+	    state.waitingOn = this;
+	    state.waitingLevel = level;
+	    state.prevWaiting = tail[level];
+	    state.nextWaiting = null;
+
+	    if (tail[level] == null) {
+		head[level] = state;
+		occupied |= 1 << level;
+	    }
+	    else {
+		tail[level].nextWaiting = state;
+	    }
+	    tail[level] = state;
+	}
+
+	/**
+	 * Unlink a thread from this queue, wherever it is.
+	 *
+	 * @param	state	the scheduling state of the thread.
+	 */
+	void remove(ThreadState state) {
+	    Lib.assertTrue(state.waitingOn == this);
+
+	    int level = state.waitingLevel;
+	    if (state.prevWaiting == null)
+		head[level] = state.nextWaiting;
+	    else
+		state.prevWaiting.nextWaiting = state.nextWaiting;
+	    if (state.nextWaiting == null)
+		tail[level] = state.prevWaiting;
+	    else
+		state.nextWaiting.prevWaiting = state.prevWaiting;
+
+	    if (head[level] == null)
+		occupied &= ~(1 << level);
+
+	    state.waitingOn = null;
+	    state.prevWaiting = state.nextWaiting = null;
+	}
+
+	/**
+	 * Return the priority this queue donates to its owner: the most urgent
+	 * effective priority of the threads waiting in it, or
+	 * <tt>Integer.MAX_VALUE</tt> if there are none.
+	 */
+	int donation() {
+	    if (occupied == 0)
+		return Integer.MAX_VALUE;
+	    return Integer.numberOfTrailingZeros(occupied);
+	}
+
+	/**
+	 * Return the thread that has waited longest at the most urgent
+	 * (numerically smallest) priority, or <tt>null</tt> if none is waiting.
+	 */
+	private ThreadState first() {
+	    if (occupied == 0)
+		return null;
+	    return head[Integer.numberOfTrailingZeros(occupied)];
 	}
 	
     /**
@@ -188,22 +292,21 @@ public class PriorityScheduler extends Scheduler {
      */
     public boolean transferPriority;
     
-    //create waitQueue, let pq + comparator class 
-    //sort threads automatically by priority
-    private Queue<KThread> waitQueue = new java.util.PriorityQueue<KThread>(1, new comparePriority());
-    
-    //compares priorities to for pq to sort threads
-    public class comparePriority implements Comparator<KThread> {
-      public int compare(KThread left, KThread right) {
-          int leftP=getThreadState(left).getEffectivePriority();
-          int rightP=getThreadState(right).getEffectivePriority();
-          if(leftP<rightP)
-            return -1;
-          if(leftP>rightP)
-            return 1;
-          return 0;
-        }
-      }
+    /*
+     * The waiting threads, one FIFO per priority level, linked through
+     * their ThreadStates. Bit p of occupied is set if level p is non-empty,
+     * so the most urgent level is found in constant time.
+     */
+    private ThreadState[] head = new ThreadState[priorityMaximum+1];
+    private ThreadState[] tail = new ThreadState[priorityMaximum+1];
+    private int occupied = 0;
+
+    /**
+     * The thread that has access to the resource, if this queue transfers
+     * priority. Its effective priority includes this queue's donation.
+     */
+    ThreadState owner = null;
+
     public KThread associatedThread = null;
     }
 
@@ -228,6 +331,7 @@ public class PriorityScheduler extends Scheduler {
 	public ThreadState(KThread thread) {
 	    this.thread = thread;
             this.priority = priorityDefault;
+            this.EffectivePriority = priorityDefault;
 	}
 
 	/**
@@ -245,23 +349,69 @@ public class PriorityScheduler extends Scheduler {
 	 * @param	priority	the new priority.
 	 */
 	public void setPriority(int priority) {
+	    if (this.priority == priority)
+		return;
+	    
 	    this.priority = priority;
+	    updateEffectivePriority();
 	}
 
 	/**
-	 * Return the effective priority of the associated thread.
+	 * Return the effective priority of the associated thread: the most
+	 * urgent of its own priority and the priorities donated to it by the
+	 * threads waiting in the queues it owns. The value is cached, and kept
+	 * up to date by <tt>updateEffectivePriority()</tt>.
 	 *
 	 * @return	the effective priority of the associated thread.
 	 */
 	public int getEffectivePriority() {
+	    return EffectivePriority;
+	}
+
+	/**
+	 * Recompute the effective priority of the associated thread after its
+	 * priority or a donation to it changed, and pass the change along the
+	 * chain of lock holders. Each thread on the chain is moved to its new
+	 * level in the queue it waits in, which may change what that queue
+	 * donates to its owner, and so on. Stops as soon as an effective
+	 * priority comes out unchanged, so only the affected part of the chain
+	 * is visited.
+	 */
+	protected void updateEffectivePriority() {
+	    ThreadState state = this;
 
-    return this.priority;
+	    while (state != null) {
+		int effective = state.priority;
+		for (Iterator<PriorityQueue> i=state.queueList.iterator();
+		     i.hasNext(); )
+		    effective = Math.min(effective, i.next().donation());
+
+		if (effective == state.EffectivePriority)
+		    return;
+		state.EffectivePriority = effective;
+
+		PriorityQueue queue = state.waitingOn;
+		if (queue == null)
+		    return;
+
+		queue.remove(state);
+		queue.add(state);
+
+		state = queue.transferPriority ? queue.owner : null;
+	    }
 	}
 
 	/** The thread with which this object is associated. */	   
 	protected KThread thread;
 	/** The priority of the associated thread. */
 	protected int priority;
+
+	/** The queue the associated thread is waiting in, if any. */
+	protected PriorityQueue waitingOn = null;
+	/** The priority level it was queued at in <tt>waitingOn</tt>. */
+	protected int waitingLevel;
+	/** The threads before and after it at that level. */
+	protected ThreadState prevWaiting = null, nextWaiting = null;
   
       //need methods below? according to berkley nachos api doc
 
@@ -278,8 +428,29 @@ public class PriorityScheduler extends Scheduler {
   public void acquire(PriorityQueue waitQueue) {
         Lib.assertTrue(Machine.interrupt().disabled());
 
-        
+        if (!waitQueue.transferPriority)
+          return;
+
+        // the threads still waiting now donate to this thread
+        Lib.assertTrue(waitQueue.owner == null);
+        waitQueue.owner = this;
+        queueList.add(waitQueue);
+        updateEffectivePriority();
+      }
 
+      /**
+       * Called when the associated thread gives up access to whatever is
+       * guarded by waitQueue, so that the waiting threads no longer donate
+       * their priority to it.
+       *
+       * @param	waitQueue	the PriorityScheduler's PriorityQueue
+       */
+      public void release(PriorityQueue waitQueue) {
+        Lib.assertTrue(waitQueue.owner == this);
+
+        waitQueue.owner = null;
+        queueList.remove(waitQueue);
+        updateEffectivePriority();
       }
       
       /**
@@ -294,10 +465,15 @@ public class PriorityScheduler extends Scheduler {
       public void waitForAccess(PriorityQueue waitQueue) {
         Lib.assertTrue(Machine.interrupt().disabled());
         
-        
-        
+        waitQueue.add(this);
+
+        // donate to the owner, and whoever it is waiting for in turn
+        if (waitQueue.transferPriority && waitQueue.owner != null)
+          waitQueue.owner.updateEffectivePriority();
       }
+    /** The queues this thread owns, whose waiters donate priority to it. */
     public LinkedList<PriorityQueue> queueList = new LinkedList<PriorityQueue>();
+    /** The cached effective priority. */
     public int EffectivePriority;
     }
 }
@@ -516,6 +516,80 @@ public class PrioritySchedulerTest {
 	System.out.println("#### Priority Donation test #3 ends ####\n");
     }
 
+    /* runPriorityDonationTest4(): checks the effective priorities donated
+     *    along a chain of locks, and taken back as the locks are released.
+     *    The threads never run: the test queues them on the locks' queues
+     *    itself, the way Lock does, so the outcome does not depend on timing.
+     */
+    private static void runPriorityDonationTest4() {
+
+	System.out.println("#### Priority Donation test #4 ####");
+
+        if (!(ThreadedKernel.scheduler instanceof PriorityScheduler) ||
+            ThreadedKernel.scheduler instanceof LotteryScheduler) {
+          System.out.println("** skipped, ThreadedKernel.scheduler is not a PriorityScheduler");
+	  System.out.println("#### Priority Donation test #4 ends ####\n");
+          return;
+        }
+        Scheduler scheduler = ThreadedKernel.scheduler;
+
+        boolean intStatus = Machine.interrupt().disable();
+
+        /* X holds lock1; Y waits for lock1 while holding lock2; Z and W
+           wait for lock2 */
+        ThreadQueue lock1 = scheduler.newThreadQueue(true);
+        ThreadQueue lock2 = scheduler.newThreadQueue(true);
+        KThread x = new KThread(null).setName("X");
+        KThread y = new KThread(null).setName("Y");
+        KThread z = new KThread(null).setName("Z");
+        KThread w = new KThread(null).setName("W");
+        scheduler.setPriority(x, 7);
+        scheduler.setPriority(y, 5);
+        scheduler.setPriority(z, 2);
+        scheduler.setPriority(w, 3);
+
+        lock1.acquire(x);
+        lock2.acquire(y);
+        lock1.waitForAccess(y);
+        lock2.waitForAccess(z);
+        lock2.waitForAccess(w);
+        int chained = scheduler.getEffectivePriority(x);
+        int middle = scheduler.getEffectivePriority(y);
+
+        /* Z's own priority changes while it waits */
+        scheduler.setPriority(z, 0);
+        int raised = scheduler.getEffectivePriority(x);
+        scheduler.setPriority(z, 4);
+        int lowered = scheduler.getEffectivePriority(x);
+
+        /* Y releases lock2 to W, the most urgent waiter left */
+        KThread next2 = lock2.nextThread();
+        int afterLock2 = scheduler.getEffectivePriority(x);
+        int yAfterLock2 = scheduler.getEffectivePriority(y);
+        int wHolding = scheduler.getEffectivePriority(w);
+
+        /* X releases lock1 to Y */
+        KThread next1 = lock1.nextThread();
+        int afterLock1 = scheduler.getEffectivePriority(x);
+        int yHolding = scheduler.getEffectivePriority(y);
+
+        Machine.interrupt().restore(intStatus);
+
+        SelfTest.check("X gets Z's priority through Y ("+chained+", Y "+middle+")",
+              chained == 2 && middle == 2);
+        SelfTest.check("and Z's raise ("+raised+")", raised == 0);
+        SelfTest.check("and W's when Z falls behind it ("+lowered+")", lowered == 3);
+        SelfTest.check("Y hands lock2 to W ("+next2+")", next2 == w);
+        SelfTest.check("then X gets only Y's ("+afterLock2+", Y "+yAfterLock2+
+              ", W "+wHolding+")",
+              afterLock2 == 5 && yAfterLock2 == 5 && wHolding == 3);
+        SelfTest.check("X hands lock1 to Y ("+next1+")", next1 == y);
+        SelfTest.check("then X is back to its own ("+afterLock1+", Y "+yHolding+")",
+              afterLock1 == 7 && yHolding == 5);
+
+	System.out.println("#### Priority Donation test #4 ends ####\n");
+    }
+
     /**
      * Tests whether this module is working.
      */
@@ -536,6 +610,9 @@ public class PrioritySchedulerTest {
 	/*  Complex donation test */
         runPriorityDonationTest3();
 
+	/*  Checked donation test, through a chain of locks */
+        runPriorityDonationTest4();
+
 	System.out.println("####################################");
 	System.out.println("## PriorityScheduler testing ends ##");
 	System.out.println("####################################\n");
@@ -0,0 +1,289 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A <tt>ReadWriteLock</tt> is a lock that any number of readers may hold at once, or else one
+ * writer. It is for read-mostly kernel data, such as the file and process tables, whose readers
+ * need not exclude each other.
+ *
+ * <ul>
+ * <li><tt>acquireRead()</tt>: wait until no writer holds or is waiting for the lock, then hold it
+ * for reading.
+ * <li><tt>acquireWrite()</tt>: wait until no thread holds the lock, then hold it for writing.
+ * <li><tt>downgrade()</tt>: atomically turn a hold for writing into a hold for reading.
+ * </ul>
+ *
+ * <p>
+ * Under the default <i>writer-preference</i> policy, a waiting writer keeps new readers out, and
+ * when a writer releases the lock the next writer gets it before any waiting reader, so readers can
+ * starve. Under the <i>fair</i> policy, a writer releasing the lock lets in all the readers that
+ * were waiting, and then the next writer once they are done, so readers and writers take turns.
+ *
+ * <p>
+ * Writers wait in a thread queue that transfers priority, so the waiting writers donate to the
+ * writer holding the lock. Readers wait in one too, and donate to the writer keeping them out: the
+ * one holding the lock, or else the one chosen to go next. Nobody donates to the readers holding
+ * the lock: there may be many of them, and a thread queue has only one holder.
+ *
+ * <p>
+ * The lock counts how often it was acquired, and how often the acquiring thread had to wait. A
+ * subclass can override <tt>contended()</tt> to see each wait as it happens.
+ */
+public class ReadWriteLock {
+  /**
+   * Allocate a new read-write lock with the writer-preference policy. The lock will initially be
+   * free.
+   */
+  public ReadWriteLock() {
+    this(false);
+  }
+
+  /**
+   * Allocate a new read-write lock. The lock will initially be free.
+   *
+   * @param fair <tt>true</tt> for the fair policy, <tt>false</tt> for writer preference.
+   */
+  public ReadWriteLock(boolean fair) {
+    this.fair = fair;
+  }
+
+  /**
+   * Atomically acquire this lock for reading. The current thread must not already hold this lock.
+   */
+  public void acquireRead() {
+    Lib.assertTrue(!isWriteHeldByCurrentThread());
+
+    boolean intStatus = Machine.interrupt().disable();
+    KThread thread = KThread.currentThread();
+
+    readAcquires++;
+    if (writer != null || nextWriter != null || waitingWriters > 0) {
+      readWaits++;
+      contended(thread, false);
+
+      waitingReaders++;
+      readQueue.waitForAccess(thread);
+      KThread.sleep();
+    }
+    else {
+      readers++;
+    }
+
+    Machine.interrupt().restore(intStatus);
+  }
+
+  /**
+   * Release this lock from reading. The current thread must hold it for reading.
+   */
+  public void releaseRead() {
+    Lib.assertTrue(!isWriteHeldByCurrentThread());
+
+    boolean intStatus = Machine.interrupt().disable();
+
+    Lib.assertTrue(readers > 0);
+    readers--;
+
+    if (readers == 0) {
+      // a writer chosen earlier has been waiting for the readers to finish
+      if (nextWriter != null) {
+        grantWrite(nextWriter);
+        nextWriter = null;
+      }
+      else if (waitingWriters > 0) {
+        waitingWriters--;
+        grantWrite(writeQueue.nextThread());
+      }
+
+      blockReaders();
+    }
+
+    Machine.interrupt().restore(intStatus);
+  }
+
+  /**
+   * Atomically acquire this lock for writing. The current thread must not already hold this lock.
+   */
+  public void acquireWrite() {
+    Lib.assertTrue(!isWriteHeldByCurrentThread());
+
+    boolean intStatus = Machine.interrupt().disable();
+    KThread thread = KThread.currentThread();
+
+    writeAcquires++;
+    if (writer != null || readers > 0 || nextWriter != null || waitingWriters > 0) {
+      writeWaits++;
+      contended(thread, true);
+
+      waitingWriters++;
+      writeQueue.waitForAccess(thread);
+      KThread.sleep();
+    }
+    else {
+      writeQueue.acquire(thread);
+      writer = thread;
+      blockReaders();
+    }
+
+    Lib.assertTrue(writer == thread);
+
+    Machine.interrupt().restore(intStatus);
+  }
+
+  /**
+   * Release this lock from writing. The current thread must hold it for writing.
+   */
+  public void releaseWrite() {
+    Lib.assertTrue(isWriteHeldByCurrentThread());
+
+    boolean intStatus = Machine.interrupt().disable();
+
+    writer = null;
+
+    if (waitingWriters > 0 && !(fair && waitingReaders > 0)) {
+      waitingWriters--;
+      grantWrite(writeQueue.nextThread());
+    }
+    else {
+      passWriteQueue();
+      admitReaders();
+    }
+
+    blockReaders();
+
+    Machine.interrupt().restore(intStatus);
+  }
+
+  /**
+   * Atomically turn the current thread's hold on this lock for writing into a hold for reading, so
+   * that no writer can get in between. Waiting readers are let in too, unless a writer is waiting
+   * and the policy is writer preference. The current thread must hold this lock for writing, and
+   * afterwards must release it with <tt>releaseRead()</tt>.
+   */
+  public void downgrade() {
+    Lib.assertTrue(isWriteHeldByCurrentThread());
+
+    boolean intStatus = Machine.interrupt().disable();
+
+    writer = null;
+    readers++;
+
+    passWriteQueue();
+    if (nextWriter == null || fair)
+      admitReaders();
+
+    blockReaders();
+
+    Machine.interrupt().restore(intStatus);
+  }
+
+  /**
+   * Test if the current thread holds this lock for writing.
+   *
+   * @return true if the current thread holds this lock for writing.
+   */
+  public boolean isWriteHeldByCurrentThread() {
+    return (writer == KThread.currentThread());
+  }
+
+  /** Return the number of times this lock was acquired for reading. */
+  public long getReadAcquires() {
+    return readAcquires;
+  }
+
+  /** Return the number of times a thread had to wait to acquire this lock for reading. */
+  public long getReadWaits() {
+    return readWaits;
+  }
+
+  /** Return the number of times this lock was acquired for writing. */
+  public long getWriteAcquires() {
+    return writeAcquires;
+  }
+
+  /** Return the number of times a thread had to wait to acquire this lock for writing. */
+  public long getWriteWaits() {
+    return writeWaits;
+  }
+
+  /**
+   * Return a summary of how contended this lock has been.
+   */
+  public String toString() {
+    return "ReadWriteLock: reads " + readAcquires + " (" + readWaits + " waited), writes "
+        + writeAcquires + " (" + writeWaits + " waited)";
+  }
+
+  /**
+   * Called, with interrupts disabled, each time a thread must wait for this lock, before it goes to
+   * sleep. Does nothing; a subclass may override it to keep its own statistics.
+   *
+   * @param thread the thread that must wait.
+   * @param write <tt>true</tt> if it wants the lock for writing, <tt>false</tt> for reading.
+   */
+  protected void contended(KThread thread, boolean write) {
+  }
+
+  /**
+   * Tests whether this module is working.
+   */
+  public static void selfTest() {
+    ReadWriteLockTest.runTest();
+  }
+
+  /**
+   * Give the lock to a writer that was waiting for it.
+   */
+  private void grantWrite(KThread thread) {
+    writer = thread;
+    thread.ready();
+  }
+
+  /**
+   * Called when the writer gives up the lock other than to another writer: the queue of writers, and
+   * their donation, passes to the next waiting writer, which must wait for the readers, or to no one.
+   */
+  private void passWriteQueue() {
+    nextWriter = writeQueue.nextThread();
+    if (nextWriter != null)
+      waitingWriters--;
+  }
+
+  /**
+   * Called whenever the writer holding the lock or going next changes: the readers waiting, and any
+   * that come to wait, donate to that writer, or to no one if there is none.
+   */
+  private void blockReaders() {
+    KThread blocker = (writer != null) ? writer : nextWriter;
+    if (blocker != null)
+      readQueue.handOff(blocker);
+    else
+      readQueue.release();
+  }
+
+  /**
+   * Let in all the readers that are waiting.
+   */
+  private void admitReaders() {
+    while (waitingReaders > 0) {
+      waitingReaders--;
+      readers++;
+      readQueue.nextThread().ready();
+    }
+  }
+
+  private boolean fair;
+
+  /** The writer holding the lock, if any. */
+  private KThread writer = null;
+  /** The number of readers holding the lock. */
+  private int readers = 0;
+  /** The writer taken from the queue to go next, once the readers holding the lock are done. */
+  private KThread nextWriter = null;
+
+  private int waitingReaders = 0, waitingWriters = 0;
+  private ThreadQueue readQueue = ThreadedKernel.scheduler.newThreadQueue(true);
+  private ThreadQueue writeQueue = ThreadedKernel.scheduler.newThreadQueue(true);
+
+  private long readAcquires = 0, readWaits = 0, writeAcquires = 0, writeWaits = 0;
+}
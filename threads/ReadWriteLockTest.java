@@ -0,0 +1,256 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A Tester for the ReadWriteLock class
+ */
+public class ReadWriteLockTest {
+
+  /**
+   * Thread that takes the lock for reading or writing, notes when it got in, and holds the lock
+   * for a few yields.
+   */
+  private static class Holder implements Runnable {
+
+    /* Constructor */
+    Holder(String name, ReadWriteLock lock, boolean write, int yields) {
+      this.name = name;
+      this.lock = lock;
+      this.write = write;
+      this.yields = yields;
+    }
+
+    public void run() {
+      if (write)
+        lock.acquireWrite();
+      else
+        lock.acquireRead();
+
+      /* check that we are alone, or among readers only */
+      if (write) {
+        if (writersInside != 0 || readersInside != 0)
+          violations++;
+        writersInside++;
+      }
+      else {
+        if (writersInside != 0)
+          violations++;
+        readersInside++;
+      }
+      order.append(name + " ");
+
+      for (int i = 0; i < yields; i++)
+        KThread.yield();
+
+      if (write) {
+        writersInside--;
+        lock.releaseWrite();
+      }
+      else {
+        readersInside--;
+        lock.releaseRead();
+      }
+    }
+
+    /* My name, as noted in the order */
+    private String name;
+    /* The lock */
+    private ReadWriteLock lock;
+    /* True if I am a writer */
+    private boolean write;
+    /* How long to hold the lock */
+    private int yields;
+  }
+
+  /**
+   * Fork a holder, and let it run until it holds or waits for the lock, which counts it as
+   * acquiring before either.
+   */
+  private static KThread fork(String name, ReadWriteLock lock, boolean write, int yields) {
+    return fork(holder(name, lock, write, yields), lock);
+  }
+
+  /**
+   * Fork a thread made by <tt>holder()</tt>, and let it run until it holds or waits for the lock.
+   */
+  private static KThread fork(KThread thread, ReadWriteLock lock) {
+    long acquires = lock.getReadAcquires() + lock.getWriteAcquires();
+
+    thread.fork();
+
+    while (lock.getReadAcquires() + lock.getWriteAcquires() == acquires)
+      KThread.yield();
+    return thread;
+  }
+
+  /**
+   * Make a thread that runs a holder, without forking it.
+   */
+  private static KThread holder(String name, ReadWriteLock lock, boolean write, int yields) {
+    KThread thread = new KThread(new Holder(name, lock, write, yields));
+    thread.setName(name);
+    return thread;
+  }
+
+  /**
+   * Give other threads a chance to run until the order has the specified number of names.
+   */
+  private static void waitForOrder(int names) {
+    for (int i = 0; i < 100 && names() < names; i++)
+      KThread.yield();
+  }
+
+  /* the number of names in the order */
+  private static int names() {
+    return (order.length() == 0) ? 0 : order.toString().split(" ").length;
+  }
+
+  private static void joinAll(KThread[] threads) {
+    for (int i = 0; i < threads.length; i++)
+      threads[i].join();
+  }
+
+  private static int getEffectivePriority(KThread thread) {
+    boolean intStatus = Machine.interrupt().disable();
+    int priority = ThreadedKernel.scheduler.getEffectivePriority(thread);
+    Machine.interrupt().restore(intStatus);
+    return priority;
+  }
+
+  private static void setPriority(KThread thread, int priority) {
+    boolean intStatus = Machine.interrupt().disable();
+    ThreadedKernel.scheduler.setPriority(thread, priority);
+    Machine.interrupt().restore(intStatus);
+  }
+
+  /**
+   * A reader kept out by a writer donates to it, as a waiting writer does, both when the writer
+   * holds the lock and when it is going next and waits for the readers holding the lock. The
+   * writer loses the donation once the reader gets in.
+   */
+  private static void donationTest() {
+    ReadWriteLock lock = new ReadWriteLock();
+    KThread current = KThread.currentThread();
+
+    /* a priority that, under each donating scheduler, a waiter's default one would raise: less
+     * urgent than the default, or fewer tickets than the two of them together */
+    boolean intStatus = Machine.interrupt().disable();
+    int saved = ThreadedKernel.scheduler.getPriority(current);
+    Machine.interrupt().restore(intStatus);
+    setPriority(current, 2);
+    int own = getEffectivePriority(current);
+
+    lock.acquireWrite();
+    KThread w = fork("W", lock, true, 0);
+    int byWriter = getEffectivePriority(current);
+    lock.releaseWrite();
+    w.join();
+
+    if (byWriter == own) {
+      System.out.println("** scheduler does not donate, donation not tested");
+      setPriority(current, saved);
+      return;
+    }
+
+    lock.acquireWrite();
+    KThread r = fork("R", lock, false, 0);
+    int byReader = getEffectivePriority(current);
+    lock.releaseWrite();
+    int after = getEffectivePriority(current);
+    r.join();
+    SelfTest.check("a waiting reader donates like a writer (" + own + " -> " + byReader + ")",
+        byReader == byWriter);
+    SelfTest.check("the writer loses the donation on release (" + after + ")", after == own);
+
+    /* after a downgrade, the next writer keeps the reader out until the lock is released */
+    lock.acquireWrite();
+    w = holder("W", lock, true, 0);
+    setPriority(w, 2);
+    fork(w, lock);
+    r = fork("R", lock, false, 0);
+    lock.downgrade();
+    int byReaderToNext = getEffectivePriority(w);
+    lock.releaseRead();
+    joinAll(new KThread[] { w, r });
+    SelfTest.check("a waiting reader donates to the next writer (" + own + " -> " + byReaderToNext
+        + ")", byReaderToNext == byWriter);
+
+    setPriority(current, saved);
+  }
+
+  /**
+   * Tests whether this module is working.
+   */
+  public static void runTest() {
+    System.out.println("**** ReadWriteLock testing begins ****");
+
+    /* Readers hold the lock together */
+    ReadWriteLock lock = new ReadWriteLock();
+    lock.acquireRead();
+    KThread readers[] = new KThread[] {
+        fork("R1", lock, false, 0), fork("R2", lock, false, 0), fork("R3", lock, false, 0) };
+    waitForOrder(3);
+    SelfTest.check("readers share the lock", names() == 3);
+    lock.releaseRead();
+    joinAll(readers);
+
+    /* Writers exclude everyone, with many threads mixed */
+    KThread mixed[] = new KThread[12];
+    for (int i = 0; i < mixed.length; i++)
+      mixed[i] = fork((i % 3 == 0 ? "W" : "R") + i, lock, i % 3 == 0, i % 4);
+    joinAll(mixed);
+    SelfTest.check("writers hold the lock alone", violations == 0);
+
+    /* Writer preference: a waiting writer keeps a new reader out */
+    order.setLength(0);
+    lock.acquireRead();
+    KThread w = fork("W", lock, true, 0);
+    KThread r = fork("R", lock, false, 0);
+    SelfTest.check("a waiting writer blocks new readers", order.length() == 0);
+    lock.releaseRead();
+    joinAll(new KThread[] { w, r });
+    SelfTest.check("writer preference order (" + order.toString().trim() + ")",
+        order.toString().equals("W R "));
+
+    /* Fair: readers waiting when a writer releases go before the next writer */
+    for (int f = 0; f < 2; f++) {
+      boolean fair = (f == 1);
+      ReadWriteLock turns = new ReadWriteLock(fair);
+      order.setLength(0);
+      turns.acquireWrite();
+      KThread waiters[] = new KThread[] {
+          fork("R1", turns, false, 1), fork("W1", turns, true, 1), fork("R2", turns, false, 1) };
+      turns.releaseWrite();
+      joinAll(waiters);
+      /* the readers get in together, so only where the writer is matters */
+      SelfTest.check((fair ? "fair" : "writer preference") + " turns ("
+          + order.toString().trim() + ")",
+          fair ? order.toString().endsWith("W1 ") : order.toString().startsWith("W1 "));
+    }
+
+    /* Downgrade lets waiting readers in, and keeps writers out */
+    order.setLength(0);
+    lock.acquireWrite();
+    r = fork("R", lock, false, 0);
+    lock.downgrade();
+    waitForOrder(1);
+    SelfTest.check("downgrade admits readers", order.toString().equals("R "));
+    w = fork("W", lock, true, 0);
+    SelfTest.check("downgrade keeps writers out", order.toString().equals("R "));
+    lock.releaseRead();
+    joinAll(new KThread[] { r, w });
+    SelfTest.check("writer after downgrade", order.toString().equals("R W "));
+
+    /* Readers donate to the writer keeping them out */
+    donationTest();
+
+    System.out.println("** " + lock);
+    System.out.println("**** ReadWriteLock testing ends ****");
+  }
+
+  /* Who is holding the lock, and how many times that broke the rules */
+  private static int readersInside = 0, writersInside = 0, violations = 0;
+  /* The order threads got the lock in */
+  private static StringBuffer order = new StringBuffer();
+}
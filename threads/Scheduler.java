@@ -52,6 +52,78 @@ public abstract class Scheduler {
      */
     public abstract ThreadQueue newThreadQueue(boolean transferPriority);
 
+    /**
+     * Allocate the queue of threads that are ready to run. <tt>KThread</tt>
+     * calls this once, in place of <tt>newThreadQueue(false)</tt>, so that a
+     * scheduler can tell the ready queue apart from the others.
+     *
+     * @return	a new thread queue.
+     */
+    public ThreadQueue newReadyQueue() {
+	return newThreadQueue(false);
+    }
+
+    /**
+     * Called by the timer interrupt handler, with interrupts disabled, to
+     * ask whether the current thread should give up the processor. The
+     * default, which gives round-robin time slicing, is to always yield.
+     *
+     * @return	<tt>true</tt> if the current thread should yield.
+     */
+    public boolean timerInterrupt() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+	return true;
+    }
+
+    /**
+     * Called by <tt>KThread</tt>, with interrupts disabled, just before it
+     * dispatches the CPU from one thread to another (or to the same thread
+     * again). The default does nothing.
+     *
+     * @param	previous	the thread giving up the CPU.
+     * @param	next		the thread about to run.
+     */
+    public void threadSwitch(KThread previous, KThread next) {
+    }
+
+    /**
+     * Called by <tt>KThread.finish()</tt>, with interrupts disabled, when a
+     * thread finishes. The default does nothing.
+     *
+     * @param	thread	the thread that is finishing.
+     */
+    public void threadFinished(KThread thread) {
+    }
+
+    /**
+     * Declare the specified thread to be a real-time thread, which must be
+     * given <i>budget</i> ticks of CPU within <i>deadline</i> ticks of the
+     * start of each period of <i>period</i> ticks. Must be called with
+     * interrupts disabled. The default scheduler has no real-time class, and
+     * admits no thread.
+     *
+     * @param	thread		the thread.
+     * @param	period		the ticks between the starts of its jobs.
+     * @param	budget		the ticks of CPU each job needs.
+     * @param	deadline	the ticks after its start by which each job
+     *				must be done.
+     * @return	<tt>true</tt> if the thread was admitted.
+     */
+    public boolean setRealTime(KThread thread, long period, long budget,
+			       long deadline) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+	return false;
+    }
+
+    /**
+     * Called by a real-time thread, with interrupts disabled, when it has
+     * finished its current job. Returns when its next period starts. The
+     * default does nothing.
+     */
+    public void waitForNextPeriod() {
+	Lib.assertTrue(Machine.interrupt().disabled());
+    }
+
     /**
      * Get the priority of the specified thread. Must be called with
      * interrupts disabled.
@@ -0,0 +1,200 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Scheduler instrumentation: histograms, in simulated ticks, of how long
+ * threads wait between becoming ready and running, and of how long they run
+ * once they do, globally and for each thread, and of the length of the ready
+ * queue each time a thread is dispatched. The histograms are printed with the
+ * statistics when Nachos halts.
+ *
+ * <p>
+ * Each thread's histograms are kept with the thread, and go when it does.
+ * Only the threads that have waited longest are remembered after that, for
+ * printing, however many threads a long run creates.
+ *
+ * <p>
+ * Set <tt>KThread.schedulingStats</tt> to enable it. <tt>KThread</tt> checks
+ * <tt>enabled</tt>, which is final, before each call, so when it is disabled
+ * the JIT compiles the instrumentation away.
+ */
+public class SchedulingStats {
+    private SchedulingStats() {
+    }
+
+    /** Whether scheduling statistics are being kept. */
+    public static final boolean enabled =
+	Config.getBoolean("KThread.schedulingStats", false);
+
+    static {
+	if (enabled) {
+	    Machine.addHaltReport(new Runnable() {
+		    public void run() { print(); }
+		});
+	}
+    }
+
+    /**
+     * The histograms for one thread.
+     */
+    public static class ThreadStats {
+	ThreadStats(KThread thread) {
+	    this.thread = thread;
+	}
+
+	/** The thread these are for. */
+	public KThread getThread() {
+	    return thread;
+	}
+
+	/** Its ready-to-running latencies. */
+	public Histogram getLatencies() {
+	    return latencies;
+	}
+
+	/** Its time slices. */
+	public Histogram getSlices() {
+	    return slices;
+	}
+
+	private KThread thread;
+	private Histogram latencies = new Histogram("latency");
+	private Histogram slices = new Histogram("slice");
+
+	/** When it became ready, or -1 if it is not waiting to run. */
+	private long readySince = -1;
+	/** When it last started running. */
+	private long runningSince = 0;
+    }
+
+    /**
+     * Called by <tt>KThread.ready()</tt> when a thread (other than the idle
+     * thread) becomes ready.
+     */
+    static void ready(KThread thread) {
+	ThreadStats stats = getThreadStats(thread);
+
+	stats.readySince = Machine.timer().getTime();
+	queueLength++;
+    }
+
+    /**
+     * Called by <tt>KThread.run()</tt> when the CPU is dispatched from one
+     * thread to another, or to the same thread again.
+     */
+    static void switching(KThread previous, KThread next, KThread idle) {
+	long now = Machine.timer().getTime();
+
+	if (previous != idle) {
+	    ThreadStats stats = getThreadStats(previous);
+	    stats.slices.record(now - stats.runningSince);
+	    slices.record(now - stats.runningSince);
+	}
+
+	if (next != idle) {
+	    ThreadStats stats = getThreadStats(next);
+	    if (stats.readySince >= 0) {
+		stats.latencies.record(now - stats.readySince);
+		latencies.record(now - stats.readySince);
+		stats.readySince = -1;
+		queueLength--;
+		rank(stats);
+	    }
+	    stats.runningSince = now;
+	}
+
+	queueLengths.record(queueLength);
+    }
+
+    /**
+     * Return the ready-to-running latencies of all threads.
+     */
+    public static Histogram getLatencies() {
+	return latencies;
+    }
+
+    /**
+     * Return the time slices of all threads.
+     */
+    public static Histogram getSlices() {
+	return slices;
+    }
+
+    /**
+     * Return the length of the ready queue, sampled at each dispatch.
+     */
+    public static Histogram getQueueLengths() {
+	return queueLengths;
+    }
+
+    /**
+     * Return the histograms of the threads that have waited longest to run,
+     * longest first: at most 10 of them.
+     */
+    public static Iterator<ThreadStats> getThreadStats() {
+	return worst.iterator();
+    }
+
+    /**
+     * Print the histograms: in full for all threads, and summarized for the
+     * threads that waited longest.
+     */
+    public static void print() {
+	System.out.println("Scheduling: " + latencies);
+	System.out.println("Scheduling: " + slices);
+	System.out.println("Scheduling: " + queueLengths);
+
+	for (Iterator<ThreadStats> i=worst.iterator(); i.hasNext(); ) {
+	    ThreadStats stats = i.next();
+	    System.out.println("Scheduling: " + stats.thread + " "
+			       + stats.latencies + "; " + stats.slices);
+	}
+	if (numThreads > worst.size())
+	    System.out.println("Scheduling: " + (numThreads-worst.size())
+			       + " more threads");
+    }
+
+    /**
+     * Move a thread that has just recorded a latency to its place among the
+     * threads that have waited longest, if it is one of them now.
+     */
+    private static void rank(ThreadStats stats) {
+	worst.remove(stats);
+
+	int rank = 0;
+	while (rank < worst.size() &&
+	       worst.get(rank).latencies.getMax() >= stats.latencies.getMax())
+	    rank++;
+	if (rank < threadsPrinted) {
+	    worst.add(rank, stats);
+	    if (worst.size() > threadsPrinted)
+		worst.removeLast();
+	}
+    }
+
+    private static ThreadStats getThreadStats(KThread thread) {
+	if (thread.schedulingStats == null) {
+	    thread.schedulingStats = new ThreadStats(thread);
+	    numThreads++;
+	}
+
+	return thread.schedulingStats;
+    }
+
+    private static Histogram latencies = new Histogram("ready-to-run latency");
+    private static Histogram slices = new Histogram("time slice");
+    private static Histogram queueLengths = new Histogram("ready queue length");
+
+    /** The threads that have waited longest, longest first. */
+    private static LinkedList<ThreadStats> worst =
+	new LinkedList<ThreadStats>();
+    /** The number of threads that have been ready or run. */
+    private static long numThreads = 0;
+    private static int queueLength = 0;
+
+    private static final int threadsPrinted = 10;
+}
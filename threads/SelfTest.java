@@ -0,0 +1,23 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * Helpers shared by the self tests of this package.
+ */
+class SelfTest {
+  private SelfTest() {
+  }
+
+  /**
+   * Print the outcome of a check made by a test, and fail the run, as <tt>Lib.assertTrue()</tt>
+   * does, if the check did not hold.
+   *
+   * @param what what was checked, and the values it was checked on.
+   * @param ok   whether it held.
+   */
+  static void check(String what, boolean ok) {
+    System.out.println("** " + what + ": " + (ok ? "ok" : "FAILED"));
+    Lib.assertTrue(ok, what);
+  }
+}
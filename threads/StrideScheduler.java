@@ -0,0 +1,485 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A scheduler that shares access among threads in proportion to their
+ * tickets, deterministically.
+ *
+ * <p>
+ * A stride scheduler gives each thread a stride, inversely proportional to
+ * its tickets, and a pass value. The next thread to be dequeued is always the
+ * waiting thread with the smallest pass, and its pass then advances by its
+ * stride, so a thread with twice the tickets is chosen twice as often. Ties
+ * go to the thread that has waited longest. Unlike a lottery, the same
+ * threads and tickets always produce the same order.
+ *
+ * <p>
+ * Only the ready queue charges strides: a thread's pass measures the CPU it
+ * has been given, not the locks or semaphores it has won. Other queues also
+ * dequeue the waiting thread with the smallest pass, the one furthest behind
+ * on CPU, but leave its pass alone. A thread that becomes ready is never
+ * placed before the pass of the last thread dispatched, so it cannot bank
+ * credit while it is blocked.
+ *
+ * <p>
+ * Each queue keeps its waiting threads in an indexed binary min-heap on pass,
+ * so choosing a thread, and repositioning one whose tickets changed, take
+ * time logarithmic in the number of waiting threads.
+ *
+ * <p>
+ * Like a lottery scheduler, a stride scheduler transfers tickets through
+ * locks, and these tickets add. When a waiting thread's tickets change, the
+ * part of its stride that it has still to wait is scaled to its new stride,
+ * as in Waldspurger's stride scheduling.
+ */
+public class StrideScheduler extends Scheduler {
+    /**
+     * Allocate a new stride scheduler.
+     */
+    public StrideScheduler() {
+    }
+
+    /**
+     * Allocate a new stride thread queue.
+     *
+     * @param	transferPriority	<tt>true</tt> if this queue should
+     *					transfer tickets from waiting threads
+     *					to the owning thread.
+     * @return	a new stride thread queue.
+     */
+    public ThreadQueue newThreadQueue(boolean transferPriority) {
+	return new StrideQueue(transferPriority, false);
+    }
+
+    /**
+     * Allocate the ready queue, the only queue that charges strides.
+     *
+     * @return	a new stride thread queue.
+     */
+    public ThreadQueue newReadyQueue() {
+	return new StrideQueue(false, true);
+    }
+
+    public int getPriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return getThreadState(thread).tickets;
+    }
+
+    public int getEffectivePriority(KThread thread) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	return (int) Math.min(getThreadState(thread).effective,
+			      Integer.MAX_VALUE);
+    }
+
+    public void setPriority(KThread thread, int priority) {
+	Lib.assertTrue(Machine.interrupt().disabled());
+
+	Lib.assertTrue(priority >= priorityMinimum &&
+		       priority <= priorityMaximum);
+
+	ThreadState state = getThreadState(thread);
+	state.transfer(priority - state.tickets);
+	state.tickets = priority;
+    }
+
+    public boolean increasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+	int priority = getPriority(thread);
+	if (priority == priorityMaximum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority+1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    public boolean decreasePriority() {
+	boolean intStatus = Machine.interrupt().disable();
+
+	KThread thread = KThread.currentThread();
+	int priority = getPriority(thread);
+	if (priority == priorityMinimum) {
+	    Machine.interrupt().restore(intStatus);
+	    return false;
+	}
+
+	setPriority(thread, priority-1);
+
+	Machine.interrupt().restore(intStatus);
+	return true;
+    }
+
+    /**
+     * Tests whether this module is working.
+     */
+    public static void selfTest() {
+	StrideSchedulerTest.runTest();
+    }
+
+    /**
+     * The default number of tickets for a new thread. Do not change this
+     * value.
+     */
+    public static final int priorityDefault = 1;
+    /**
+     * The minimum number of tickets that a thread can have. Do not change
+     * this value.
+     */
+    public static final int priorityMinimum = 1;
+    /**
+     * The maximum number of tickets that a thread can have. Do not change
+     * this value.
+     */
+    public static final int priorityMaximum = 1 << 20;
+
+    /**
+     * The stride of a thread holding one ticket. Large enough that strides
+     * stay exact to about one part in a thousand at <tt>priorityMaximum</tt>.
+     */
+    static final long stride1 = 1L << 30;
+
+    /**
+     * Return the stride of a thread with the specified effective tickets.
+     */
+    static long stride(long tickets) {
+	return Math.max(1, stride1 / tickets);
+    }
+
+    /**
+     * Return the scheduling state of the specified thread.
+     *
+     * @param	thread	the thread whose scheduling state to return.
+     * @return	the scheduling state of the specified thread.
+     */
+    protected ThreadState getThreadState(KThread thread) {
+	if (thread.schedulingState == null)
+	    thread.schedulingState = new ThreadState(thread);
+
+	return (ThreadState) thread.schedulingState;
+    }
+
+    /**
+     * A <tt>ThreadQueue</tt> that dequeues the waiting thread with the
+     * smallest pass.
+     */
+    protected class StrideQueue extends ThreadQueue {
+	StrideQueue(boolean transferPriority, boolean ready) {
+	    this.transferPriority = transferPriority;
+	    this.ready = ready;
+	}
+
+	public void waitForAccess(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    ThreadState state = getThreadState(thread);
+	    add(state);
+
+	    // fund the owner, and whoever it is waiting for in turn
+	    if (transferPriority && owner != null)
+		owner.transfer(state.effective);
+	}
+
+	public void acquire(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+	    Lib.assertTrue(size == 0);
+
+	    getThreadState(thread).acquire(this);
+	}
+
+	public KThread nextThread() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    // the old owner no longer gets this queue's tickets
+	    if (owner != null)
+		owner.release(this);
+
+	    if (size == 0)
+		return null;
+
+	    ThreadState next = heap[0];
+	    remove(next);
+
+	    // charge the thread one stride for the CPU it was given
+	    if (ready) {
+		floor = next.pass;
+		next.pass += stride(next.effective);
+	    }
+
+	    next.acquire(this);
+	    return next.thread;
+	}
+
+	public void release() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    // the waiting threads stop funding the owner
+	    if (owner != null)
+		owner.release(this);
+	}
+
+	public void handOff(KThread thread) {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    // the waiting threads fund the new owner instead of the old one
+	    if (owner != null)
+		owner.release(this);
+
+	    getThreadState(thread).acquire(this);
+	}
+
+	public void print() {
+	    Lib.assertTrue(Machine.interrupt().disabled());
+
+	    for (int i=0; i<size; i++)
+		System.out.print(heap[i].thread + " ");
+	}
+
+	/**
+	 * Put a thread in the heap; in the ready queue, no earlier than the
+	 * last thread chosen.
+	 *
+	 * @param	state	the scheduling state of the thread.
+	 */
+	void add(ThreadState state) {
+	    // a thread can only wait in one queue at a time
+	    Lib.assertTrue(state.waitingOn == null);
+
+	    if (size == heap.length) {
+		ThreadState[] newHeap = new ThreadState[size*2];
+		System.arraycopy(heap, 0, newHeap, 0, size);
+		heap = newHeap;
+	    }
+
+	    if (ready)
+		state.pass = Math.max(state.pass, floor);
+	    state.arrival = arrivals++;
+	    state.waitingOn = this;
+	    state.heapIndex = size;
+	    heap[size++] = state;
+	    siftUp(state.heapIndex);
+
+	    total += state.effective;
+	}
+
+	/**
+	 * Take a thread out of the heap, wherever it is.
+	 *
+	 * @param	state	the scheduling state of the thread.
+	 */
+	void remove(ThreadState state) {
+	    Lib.assertTrue(state.waitingOn == this);
+
+	    int i = state.heapIndex;
+	    ThreadState last = heap[--size];
+	    heap[size] = null;
+	    if (i < size) {
+		heap[i] = last;
+		last.heapIndex = i;
+		fix(i);
+	    }
+
+	    total -= state.effective;
+	    state.waitingOn = null;
+	}
+
+	/**
+	 * Change the effective tickets of a waiting thread. In the ready
+	 * queue, scale what is left of its stride, and move it to its new
+	 * place in the heap.
+	 *
+	 * @param	state	the scheduling state of the thread.
+	 * @param	oldTickets	its effective tickets before the change.
+	 */
+	void retick(ThreadState state, long oldTickets) {
+	    long oldStride = stride(oldTickets), newStride = stride(state.effective);
+	    long remain = state.pass - floor;
+
+	    if (ready && remain > 0 && oldStride != newStride) {
+		if (remain <= Long.MAX_VALUE / newStride)
+		    remain = remain * newStride / oldStride;
+		else
+		    remain = remain / oldStride * newStride;
+		state.pass = floor + remain;
+		fix(state.heapIndex);
+	    }
+
+	    total += state.effective - oldTickets;
+	}
+
+	/**
+	 * Restore the heap order around position <tt>i</tt>.
+	 */
+	private void fix(int i) {
+	    if (i > 0 && before(heap[i], heap[(i-1)/2]))
+		siftUp(i);
+	    else
+		siftDown(i);
+	}
+
+	private void siftUp(int i) {
+	    ThreadState state = heap[i];
+	    while (i > 0) {
+		int parent = (i-1)/2;
+		if (!before(state, heap[parent]))
+		    break;
+		heap[i] = heap[parent];
+		heap[i].heapIndex = i;
+		i = parent;
+	    }
+	    heap[i] = state;
+	    state.heapIndex = i;
+	}
+
+	private void siftDown(int i) {
+	    ThreadState state = heap[i];
+	    while (true) {
+		int child = 2*i+1;
+		if (child >= size)
+		    break;
+		if (child+1 < size && before(heap[child+1], heap[child]))
+		    child++;
+		if (!before(heap[child], state))
+		    break;
+		heap[i] = heap[child];
+		heap[i].heapIndex = i;
+		i = child;
+	    }
+	    heap[i] = state;
+	    state.heapIndex = i;
+	}
+
+	/**
+	 * Return <tt>true</tt> if <tt>a</tt> should be chosen before
+	 * <tt>b</tt>: it has the smaller pass, or it has waited longer.
+	 */
+	private boolean before(ThreadState a, ThreadState b) {
+	    if (a.pass != b.pass)
+		return a.pass < b.pass;
+	    return a.arrival < b.arrival;
+	}
+
+	/**
+	 * <tt>true</tt> if this queue should transfer tickets from waiting
+	 * threads to the owning thread.
+	 */
+	public boolean transferPriority;
+	/** <tt>true</tt> if this is the ready queue, which charges strides. */
+	private boolean ready;
+
+	/*
+	 * heap[0..size-1] is a binary min-heap of the waiting threads; each
+	 * knows its own index. floor is, in the ready queue, the pass of the
+	 * last thread chosen; total the sum of the waiters' effective tickets.
+	 */
+	private ThreadState[] heap = new ThreadState[4];
+	private int size = 0;
+	private long floor = 0, arrivals = 0, total = 0;
+
+	/**
+	 * The thread that has access to the resource, if this queue transfers
+	 * tickets. Its effective tickets include all of this queue's.
+	 */
+	ThreadState owner = null;
+    }
+
+    /**
+     * The scheduling state of a thread under the stride scheduler.
+     *
+     * @see	nachos.threads.KThread#schedulingState
+     */
+    protected class ThreadState {
+	/**
+	 * Allocate a new <tt>ThreadState</tt> object and associate it with
+	 * the specified thread.
+	 *
+	 * @param	thread	the thread this state belongs to.
+	 */
+	public ThreadState(KThread thread) {
+	    this.thread = thread;
+	}
+
+	/**
+	 * Add to the effective tickets of the associated thread, and to those
+	 * of every thread it is, through a chain of lock holders, transferring
+	 * its tickets to. Each step repositions one thread in one heap.
+	 *
+	 * @param	delta	the change in effective tickets.
+	 */
+	void transfer(long delta) {
+	    // a waits-for cycle is a deadlock; don't spin around it
+	    int stamp = ++transferCount;
+
+	    for (ThreadState state=this; state!=null && delta!=0; ) {
+		if (state.transferStamp == stamp)
+		    return;
+		state.transferStamp = stamp;
+
+		long oldTickets = state.effective;
+		state.effective += delta;
+
+		StrideQueue queue = state.waitingOn;
+		if (queue == null)
+		    return;
+
+		queue.retick(state, oldTickets);
+		state = queue.transferPriority ? queue.owner : null;
+	    }
+	}
+
+	/**
+	 * Called when the associated thread has acquired access to whatever
+	 * is guarded by <tt>waitQueue</tt>. If the queue transfers tickets,
+	 * the threads still waiting in it now fund this thread.
+	 *
+	 * @param	waitQueue	the queue.
+	 */
+	void acquire(StrideQueue waitQueue) {
+	    if (!waitQueue.transferPriority)
+		return;
+
+	    Lib.assertTrue(waitQueue.owner == null);
+	    waitQueue.owner = this;
+	    transfer(waitQueue.total);
+	}
+
+	/**
+	 * Called when the associated thread gives up access to whatever is
+	 * guarded by <tt>waitQueue</tt>.
+	 *
+	 * @param	waitQueue	the queue.
+	 */
+	void release(StrideQueue waitQueue) {
+	    Lib.assertTrue(waitQueue.owner == this);
+
+	    waitQueue.owner = null;
+	    transfer(-waitQueue.total);
+	}
+
+	/** The thread with which this object is associated. */
+	protected KThread thread;
+	/** The number of tickets the associated thread holds. */
+	protected int tickets = priorityDefault;
+	/** Its tickets plus the tickets transferred to it. */
+	protected long effective = priorityDefault;
+	/** Its pass value. */
+	protected long pass = 0;
+
+	/** The queue the associated thread is waiting in, if any. */
+	protected StrideQueue waitingOn = null;
+	/** Its index in that queue's heap, and when it started waiting. */
+	protected int heapIndex;
+	protected long arrival;
+
+	private int transferStamp = 0;
+    }
+
+    private int transferCount = 0;
+}
@@ -0,0 +1,200 @@
+package nachos.threads;
+
+import nachos.machine.*;
+
+/**
+ * A Tester for the StrideScheduler class
+ */
+public class StrideSchedulerTest {
+
+  /**
+   * Thread that runs a quantum at a time, giving up the CPU with yield(), and counts how many
+   * times it was dispatched. A contending runner also waits, every loop, for the holder to hand
+   * it the lock, which is another dispatch.
+   */
+  private static class Runner implements Runnable {
+
+    /* Constructor */
+    Runner(boolean contending) {
+      this.contending = contending;
+    }
+
+    public void run() {
+      while (!done) {
+        if (contending) {
+          /* wait for the holder to have the lock again */
+          while (!holding && !done) {
+            KThread.yield();
+            dispatches++;
+          }
+          if (done)
+            break;
+
+          /* let the holder run, and wait for it to hand us the lock; we must be waiting for the
+           * lock before the holder can release it */
+          boolean intStatus = Machine.interrupt().disable();
+          holderWait.V();
+          lock.acquire();
+          Machine.interrupt().restore(intStatus);
+          dispatches++;
+
+          lock.release();
+          holderGo.V();
+        }
+        KThread.yield();
+        dispatches++;
+        if (dispatches >= quanta)
+          done = true;
+      }
+    }
+
+    /* True if I contend the lock */
+    private boolean contending;
+    /* How many times this runner was dispatched */
+    private int dispatches = 0;
+  }
+
+  /**
+   * Thread that holds the lock while it waits on a semaphore, so that the contending runner must
+   * wait for the lock to be handed to it. It takes the lock back only when the runner is done
+   * with it, so that it never waits for the lock itself and the runner is never donated tickets.
+   */
+  private static class Holder implements Runnable {
+    public void run() {
+      while (true) {
+        lock.acquire();
+        holding = true;
+        holderWait.P();
+        holding = false;
+        lock.release();
+        if (done)
+          break;
+        holderGo.P();
+      }
+    }
+  }
+
+  /**
+   * Two threads with the same tickets, one of which wins a contended lock every quantum, must
+   * still be dispatched equally often: only the CPU a thread is given is charged to it, not the
+   * lock.
+   */
+  private static void lockTest() {
+    System.out.println("#### Stride lock contention test ####");
+
+    done = false;
+    holding = false;
+    lock = new Lock();
+    holderWait = new Semaphore(0);
+    holderGo = new Semaphore(0);
+
+    Runner plain = new Runner(false);
+    Runner contending = new Runner(true);
+    KThread threads[] = new KThread[] {
+        new KThread(plain).setName("plain"),
+        new KThread(contending).setName("contending"),
+        new KThread(new Holder()).setName("holder") };
+
+    boolean intStatus = Machine.interrupt().disable();
+    for (int i = 0; i < threads.length; i++)
+      ThreadedKernel.scheduler.setPriority(threads[i], tickets);
+    Machine.interrupt().restore(intStatus);
+
+    for (int i = 0; i < threads.length; i++)
+      threads[i].fork();
+
+    threads[0].join();
+    threads[1].join();
+    /* the holder is waiting on one semaphore or the other */
+    holderWait.V();
+    holderGo.V();
+    threads[2].join();
+
+    /* timer interrupts also dispatch the runners, uncounted, and the contending one runs longer
+     * between yields, so it loses up to about a tenth, depending on where the interrupts fall;
+     * charging lock hand-offs would cost it about a third */
+    SelfTest.check("dispatches: plain " + plain.dispatches + ", contending "
+        + contending.dispatches, Math.abs(plain.dispatches - contending.dispatches) <= quanta / 6);
+    System.out.println("#### Stride lock contention test ends ####");
+  }
+
+  /**
+   * Dispatch two threads from a fresh ready queue, the way <tt>KThread</tt> does, and return the
+   * order they were chosen in, one letter for each.
+   */
+  private static String dispatchOrder(StrideScheduler scheduler, int ticketsA, int ticketsB) {
+    boolean intStatus = Machine.interrupt().disable();
+
+    ThreadQueue readyQueue = scheduler.newReadyQueue();
+    KThread a = new KThread(null).setName("A");
+    KThread b = new KThread(null).setName("B");
+    scheduler.setPriority(a, ticketsA);
+    scheduler.setPriority(b, ticketsB);
+    readyQueue.waitForAccess(a);
+    readyQueue.waitForAccess(b);
+
+    StringBuffer order = new StringBuffer();
+    for (int i = 0; i < ratioDispatches; i++) {
+      KThread next = readyQueue.nextThread();
+      order.append(next == a ? 'A' : 'B');
+      readyQueue.waitForAccess(next);
+    }
+
+    Machine.interrupt().restore(intStatus);
+    return order.toString();
+  }
+
+  /**
+   * Two threads with 3:1 tickets must be dispatched exactly 3:1, in the same order every time.
+   * The threads never run: the test drives a ready queue itself, so that timer interrupts cannot
+   * add dispatches of their own.
+   */
+  private static void ratioTest() {
+    System.out.println("#### Stride ratio test ####");
+
+    StrideScheduler scheduler = (StrideScheduler) ThreadedKernel.scheduler;
+    String first = dispatchOrder(scheduler, 3 * tickets, tickets);
+    String second = dispatchOrder(scheduler, 3 * tickets, tickets);
+
+    int a = 0;
+    for (int i = 0; i < first.length(); i++) {
+      if (first.charAt(i) == 'A')
+        a++;
+    }
+    int b = first.length() - a;
+
+    SelfTest.check("exact 3:1 ratio (A " + a + ", B " + b + ", starting " + first.substring(0, 8)
+        + ")", a == 3 * b);
+    SelfTest.check("same order when repeated", first.equals(second));
+    System.out.println("#### Stride ratio test ends ####");
+  }
+
+  /**
+   * Tests whether this module is working.
+   */
+  public static void runTest() {
+    System.out.println("**** StrideScheduler testing begins ****");
+
+    if (ThreadedKernel.scheduler instanceof StrideScheduler) {
+      ratioTest();
+      lockTest();
+    }
+    else
+      System.out.println("** skipped, ThreadedKernel.scheduler is not a StrideScheduler");
+
+    System.out.println("**** StrideScheduler testing ends ****");
+  }
+
+  /* Set once either runner has had its quanta */
+  private static boolean done = false;
+  /* The contended lock, whether the holder has it, and the semaphores the holder waits on: to
+   * hand the lock over, and to take it back */
+  private static Lock lock;
+  private static boolean holding = false;
+  private static Semaphore holderWait, holderGo;
+
+  private static final int quanta = 1000;
+  private static final int tickets = 100;
+  /* How many dispatches the ratio test makes, a multiple of 4 */
+  private static final int ratioDispatches = 4000;
+}
@@ -1,34 +1,114 @@
 package nachos.threads;
 
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.LinkedList;
 import nachos.machine.*;
 import nachos.threads.*;
 
 /**
- * A synchronized queue.
+ * A synchronized queue, kept in a ring buffer. The queue may be bounded, in
+ * which case threads adding to a full queue wait for room.
+ *
+ * <p>
+ * <tt>addAll()</tt> and <tt>drainTo()</tt> move many objects for each time
+ * they take the lock. Each operation wakes at most one waiting thread, which
+ * wakes the next if there is still something for it to do.
  */
 public class SynchList {
     /**
-     * Allocate a new synchronized queue.
+     * Allocate a new synchronized queue, with no limit on its length.
      */
     public SynchList() {
-	list = new LinkedList<Object>();
+	this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Allocate a new synchronized queue that holds at most <i>capacity</i>
+     * objects.
+     *
+     * @param	capacity	the most objects the queue can hold.
+     */
+    public SynchList(int capacity) {
+	Lib.assertTrue(capacity > 0);
+
+	this.capacity = capacity;
+	buffer = new Object[Math.min(capacity, initialSize)];
 	lock = new Lock();
 	listEmpty = new Condition(lock);
+	listFull = new Condition(lock);
     }
 
     /**
-     * Add the specified object to the end of the queue. If another thread is
-     * waiting in <tt>removeFirst()</tt>, it is woken up.
+     * Add the specified object to the end of the queue, blocking until there
+     * is room if necessary. If another thread is waiting in
+     * <tt>removeFirst()</tt>, it is woken up.
      *
      * @param	o	the object to add. Must not be <tt>null</tt>.
      */
     public void add(Object o) {
 	Lib.assertTrue(o != null);
-	
+
 	lock.acquire();
-	list.add(o);
-	listEmpty.wake();
+	while (size == capacity)
+	    listFull.sleep();
+	append(o);
+	added();
+	lock.release();
+    }
+
+    /**
+     * Add the specified object to the end of the queue, if there is room.
+     *
+     * @param	o	the object to add. Must not be <tt>null</tt>.
+     * @return	<tt>true</tt> if it was added, <tt>false</tt> if the queue
+     *		was full.
+     */
+    public boolean offer(Object o) {
+	Lib.assertTrue(o != null);
+
+	lock.acquire();
+	boolean room = (size < capacity);
+	if (room) {
+	    append(o);
+	    added();
+	}
+	lock.release();
+
+	return room;
+    }
+
+    /**
+     * Add all the objects in the specified collection to the end of the
+     * queue, in order. Adds as many as there is room for each time the lock
+     * is taken, blocking for more room if necessary; objects other threads
+     * add may come between batches.
+     *
+     * @param	c	the objects to add. None may be <tt>null</tt>.
+     */
+    public void addAll(Collection<?> c) {
+	Iterator<?> i = c.iterator();
+	if (!i.hasNext())
+	    return;
+
+	lock.acquire();
+	while (true) {
+	    while (size == capacity)
+		listFull.sleep();
+
+	    while (size < capacity && i.hasNext()) {
+		Object o = i.next();
+		Lib.assertTrue(o != null);
+		append(o);
+	    }
+
+	    if (!i.hasNext())
+		break;
+
+	    // let a consumer start on these while we wait for more room
+	    listEmpty.wake();
+	}
+	added();
 	lock.release();
     }
 
@@ -42,11 +122,101 @@ public class SynchList {
 	Object o;
 
 	lock.acquire();
-	while (list.isEmpty())
+	while (size == 0)
+	    listEmpty.sleep();
+	o = removeHead();
+	removed();
+	lock.release();
+
+	return o;
+    }
+
+    /**
+     * Remove an object from the front of the queue, if there is one.
+     *
+     * @return	the element removed from the front of the queue, or
+     *		<tt>null</tt> if the queue was empty.
+     */
+    public Object poll() {
+	Object o = null;
+
+	lock.acquire();
+	if (size > 0) {
+	    o = removeHead();
+	    removed();
+	}
+	lock.release();
+
+	return o;
+    }
+
+    /**
+     * Remove up to <i>max</i> objects from the front of the queue, and add
+     * them in order to the specified collection. Blocks until the queue is
+     * non-empty if necessary, then takes everything waiting, up to
+     * <i>max</i>.
+     *
+     * @param	c	the collection to add the objects to.
+     * @param	max	the most objects to remove; at least 1.
+     * @return	the number of objects removed.
+     */
+    public int drainTo(Collection<Object> c, int max) {
+	Lib.assertTrue(max > 0);
+
+	lock.acquire();
+	while (size == 0)
 	    listEmpty.sleep();
-	o = list.removeFirst();
+
+	int n = Math.min(max, size);
+	for (int i=0; i<n; i++)
+	    c.add(removeHead());
+	removed();
 	lock.release();
 
+	return n;
+    }
+
+    /**
+     * Called holding the lock after adding: wake a consumer, and pass any
+     * room left on to another producer.
+     */
+    private void added() {
+	listEmpty.wake();
+	if (size < capacity)
+	    listFull.wake();
+    }
+
+    /**
+     * Called holding the lock after removing: wake a producer, and pass any
+     * objects left on to another consumer.
+     */
+    private void removed() {
+	listFull.wake();
+	if (size > 0)
+	    listEmpty.wake();
+    }
+
+    private void append(Object o) {
+	if (size == buffer.length) {
+	    // grow, unwrapping the ring to the front of the new buffer
+	    Object[] newBuffer =
+		new Object[(int) Math.min((long) buffer.length*2, capacity)];
+	    for (int i=0; i<size; i++)
+		newBuffer[i] = buffer[(head+i) % buffer.length];
+	    buffer = newBuffer;
+	    head = 0;
+	}
+
+	buffer[(head+size) % buffer.length] = o;
+	size++;
+    }
+
+    private Object removeHead() {
+	Object o = buffer[head];
+	buffer[head] = null;
+	head = (head+1) % buffer.length;
+	size--;
+
 	return o;
     }
 
@@ -55,7 +225,7 @@ public class SynchList {
 	    this.ping = ping;
 	    this.pong = pong;
 	}
-	
+
 	public void run() {
 	    for (int i=0; i<10; i++)
 		pong.add(ping.removeFirst());
@@ -65,6 +235,27 @@ public class SynchList {
 	private SynchList pong;
     }
 
+    private static class BatchTest implements Runnable {
+	BatchTest(SynchList list, int count) {
+	    this.list = list;
+	    this.count = count;
+	}
+
+	public void run() {
+	    LinkedList<Object> batch = new LinkedList<Object>();
+	    for (int i=0; i<count; i++) {
+		batch.add(Integer.valueOf(i));
+		if (batch.size() == 7 || i == count-1) {
+		    list.addAll(batch);
+		    batch.clear();
+		}
+	    }
+	}
+
+	private SynchList list;
+	private int count;
+    }
+
     /**
      * Test that this module is working.
      */
@@ -79,10 +270,32 @@ public class SynchList {
 	    ping.add(o);
 	    Lib.assertTrue(pong.removeFirst() == o);
 	}
+
+	// a bounded queue, filled in batches by one thread and drained by us
+	SynchList bounded = new SynchList(4);
+	Lib.assertTrue(bounded.poll() == null);
+
+	new KThread(new BatchTest(bounded, 100)).setName("batch").fork();
+
+	LinkedList<Object> drained = new LinkedList<Object>();
+	while (drained.size() < 100) {
+	    int n = bounded.drainTo(drained, 3);
+	    Lib.assertTrue(n >= 1 && n <= 3);
+	}
+	for (int i=0; i<100; i++)
+	    Lib.assertTrue(((Integer) drained.get(i)).intValue() == i);
+
+	Lib.assertTrue(bounded.offer(ping) && bounded.poll() == ping);
+	Lib.assertTrue(bounded.poll() == null);
     }
 
-    private LinkedList<Object> list;
+    private static final int initialSize = 16;
+
+    private int capacity;
+    /** The queue: <tt>size</tt> objects, starting at <tt>head</tt>. */
+    private Object[] buffer;
+    private int head = 0, size = 0;
     private Lock lock;
     private Condition listEmpty;
+    private Condition listFull;
 }
-
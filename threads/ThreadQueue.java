@@ -91,6 +91,38 @@ public abstract class ThreadQueue {
      */
     public abstract void acquire(KThread thread);
 
+    /**
+     * Notify this thread queue that the thread with access has given it up,
+     * but not to a thread waiting in this queue; they go on waiting. For
+     * example, a queue that shares a resource with other queues must be told
+     * when one of those hands it to a thread of its own.
+     *
+     * <p>
+     * If the limited access object transfers priority, the waiting threads
+     * stop donating priority to the thread that gave up access. The default
+     * does nothing, for queues that do not transfer priority.
+     */
+    public void release() {
+    }
+
+    /**
+     * Notify this thread queue that the specified thread has received access
+     * while the threads waiting in this queue go on waiting, without being
+     * returned from <tt>nextThread()</tt>. For example, a lock that keeps its
+     * waiters in more than one queue may be handed to a thread from another
+     * of them, and that thread now keeps this queue's threads waiting.
+     *
+     * <p>
+     * If the limited access object transfers priority, the waiting threads
+     * stop donating priority to the thread that had access, if any, and
+     * donate to the specified thread instead. The default does nothing, for
+     * queues that do not transfer priority.
+     *
+     * @param	thread	the thread that has received access.
+     */
+    public void handOff(KThread thread) {
+    }
+
     /**
      * Print out all the threads waiting for access, in no particular order.
      */
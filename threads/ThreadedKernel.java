@@ -46,12 +46,21 @@ public class ThreadedKernel extends Kernel {
         System.out.println("\n*** Nachos Kernel Successfull Started ***\n");
         PriorityScheduler.selfTest();
 //  KThread.simpleSelfTest();
+//  KThread.benchmark();
+//	Interrupt.selfTest();
+//	Histogram.selfTest();
 //	KThread.selfTest();
 //	  Semaphore.selfTest();
 //        Condition.selfTest();
 //        Condition2.selfTest();
 //	Alarm.selfTest();
 //	Communicator.selfTest();
+//	ReadWriteLock.selfTest();
+//	LotteryScheduler.selfTest();
+//	StrideScheduler.selfTest();
+//	MLFQScheduler.selfTest();
+//	CFSScheduler.selfTest();
+//	EDFScheduler.selfTest();
         PriorityScheduler.selfTest();
     }
     
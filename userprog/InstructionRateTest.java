@@ -0,0 +1,181 @@
+package nachos.userprog;
+
+import java.util.Arrays;
+
+import nachos.machine.*;
+import nachos.threads.*;
+
+/**
+ * A benchmark for the speed at which the processor runs user instructions
+ * when nothing goes wrong: no exceptions until the end, and no tracing. Needs
+ * a page table rather than a TLB, and at least 12 physical pages.
+ *
+ * <p>
+ * Like <tt>nachos.vm.TLBMissTest</tt>, it runs a small hand-assembled loop
+ * from physical memory with its own exception handler, rather than a user
+ * program. Each iteration does some arithmetic, and loads and stores one word
+ * on the next of 8 pages, through an identity page table.
+ *
+ * <p>
+ * The loop is run a few times to warm up the JVM before the rounds that are
+ * measured. The mean and best speed of those rounds are reported in millions
+ * of user instructions per second. The checksum of the values loaded must be
+ * the same for every build of the processor.
+ */
+public class InstructionRateTest {
+
+  /**
+   * Exception handler for the loop: finishes the thread running the loop on
+   * the syscall at its end.
+   */
+  private static class Handler implements Runnable {
+    public void run() {
+      Processor processor = Machine.processor();
+      int cause = processor.readRegister(Processor.regCause);
+
+      if (cause == Processor.exceptionSyscall) {
+        elapsed = System.nanoTime() - start;
+        checksum = processor.readRegister(regSum);
+        KThread.finish();
+      }
+      else {
+        Lib.assertNotReached("unexpected exception: " +
+            Processor.exceptionNames[cause]);
+      }
+    }
+  }
+
+  /**
+   * Thread that runs the loop from its first instruction.
+   */
+  private static class Runner implements Runnable {
+    public void run() {
+      Processor processor = Machine.processor();
+      for (int i=0; i<Processor.numUserRegisters; i++)
+        processor.writeRegister(i, 0);
+      processor.setPageTable(pageTable);
+
+      start = System.nanoTime();
+      processor.run();
+    }
+  }
+
+  /** Encode an R-type MIPS instruction. */
+  private static int rType(int rs, int rt, int rd, int shamt, int funct) {
+    return (rs<<21) | (rt<<16) | (rd<<11) | (shamt<<6) | funct;
+  }
+
+  /** Encode an I-type MIPS instruction. */
+  private static int iType(int op, int rs, int rt, int immediate) {
+    return (op<<26) | (rs<<21) | (rt<<16) | (immediate & 0xFFFF);
+  }
+
+  /**
+   * Return the loop, which runs from address 0 and ends with a syscall.
+   */
+  private static int[] program() {
+    return new int[] {
+      iType(opLUI, 0, 8, 0),                    // lui   r8, 0
+      iType(opORI, 8, 8, dataAddress),          // ori   r8, r8, data
+      iType(opLUI, 0, 9, iterations>>>16),      // lui   r9, iterations
+      iType(opORI, 9, 9, iterations&0xFFFF),    // ori   r9, r9, iterations
+      // loop:
+      iType(opANDI, 9, 13, dataPages-1),        // andi  r13, r9, pages-1
+      rType(0, 13, 13, 10, fnSLL),              // sll   r13, r13, 10
+      rType(8, 13, 14, 0, fnADDU),              // addu  r14, r8, r13
+      iType(opLW, 14, 11, 0),                   // lw    r11, 0(r14)
+      iType(opADDIU, 9, 12, 3),                 // addiu r12, r9, 3
+      rType(10, 11, regSum, 0, fnADDU),         // addu  r10, r10, r11
+      iType(opSW, 14, 12, 0),                   // sw    r12, 0(r14)
+      rType(15, 9, 15, 0, fnXOR),               // xor   r15, r15, r9
+      rType(15, 15, 15, 0, fnADDU),             // addu  r15, r15, r15
+      iType(opADDIU, 9, 9, -1),                 // addiu r9, r9, -1
+      iType(opBNE, 9, 0, -11),                  // bne   r9, r0, loop
+      0,                                        // nop
+      iType(opORI, 0, 2, 0),                    // ori   v0, r0, 0
+      rType(0, 0, 0, 0, fnSYSCALL),             // syscall
+    };
+  }
+
+  /**
+   * Run the loop once, from fresh data, in a thread of its own.
+   */
+  private static void round() {
+    byte[] memory = Machine.processor().getMemory();
+    Arrays.fill(memory, dataAddress, dataAddress + dataPages*pageSize,
+        (byte) 0);
+
+    KThread runner = new KThread(new Runner()).setName("instruction loop");
+    runner.fork();
+    runner.join();
+  }
+
+  /**
+   * Runs the benchmark.
+   */
+  public static void runTest() {
+    System.out.println("**** Instruction rate benchmark begins ****");
+
+    Processor processor = Machine.processor();
+    if (processor.hasTLB() ||
+        processor.getNumPhysPages() < dataAddress/pageSize + dataPages) {
+      System.out.println("skipped, needs a page table and 12 pages");
+      System.out.println("**** Instruction rate benchmark ends ****");
+      return;
+    }
+
+    pageTable = new TranslationEntry[processor.getNumPhysPages()];
+    for (int i=0; i<pageTable.length; i++)
+      pageTable[i] = new TranslationEntry(i, i, true, false, false, false);
+
+    int[] program = program();
+    for (int i=0; i<program.length; i++)
+      Lib.bytesFromInt(processor.getMemory(), i*4, program[i]);
+
+    Runnable kernelHandler = processor.getExceptionHandler();
+    processor.setExceptionHandler(new Handler());
+
+    for (int i=0; i<warmupRounds; i++)
+      round();
+
+    long total = 0, best = Long.MAX_VALUE;
+    for (int i=0; i<measuredRounds; i++) {
+      round();
+      total += elapsed;
+      best = Math.min(best, elapsed);
+    }
+
+    processor.setExceptionHandler(kernelHandler);
+
+    double instructions = (double) iterations * loopInstructions;
+    System.out.println(iterations + " iterations, checksum " + checksum);
+    System.out.println("mean " +
+        Math.round(10.0*instructions*measuredRounds/(total/1000.0))/10.0 +
+        " MIPS, best " +
+        Math.round(10.0*instructions/(best/1000.0))/10.0 + " MIPS");
+
+    System.out.println("**** Instruction rate benchmark ends ****");
+  }
+
+  private static final int pageSize = Processor.pageSize;
+
+  /* The loop touches dataPages pages starting at dataAddress, for the given
+   * number of iterations of loopInstructions each, and sums into regSum */
+  private static final int dataAddress = 0x1000;
+  private static final int dataPages = 8;
+  private static final int iterations = 2000000;
+  private static final int loopInstructions = 12;
+  private static final int regSum = 10;
+
+  private static final int opBNE = 5, opADDIU = 9, opANDI = 12, opORI = 13,
+      opLUI = 15, opLW = 35, opSW = 43;
+  private static final int fnSLL = 0, fnSYSCALL = 12, fnADDU = 33, fnXOR = 38;
+
+  private static final int warmupRounds = 2;
+  private static final int measuredRounds = 3;
+
+  private static TranslationEntry[] pageTable;
+  /* When the loop started, how long it took, and what it summed */
+  private static long start, elapsed;
+  private static int checksum;
+}
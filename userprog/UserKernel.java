@@ -34,6 +34,7 @@ public class UserKernel extends ThreadedKernel {
      */	
     public void selfTest() {
 	super.selfTest();
+//	UserKernel.benchmark();
 
 	System.out.println("Testing the console device. Typed characters");
 	System.out.println("will be echoed until q is typed.");
@@ -49,6 +50,13 @@ public class UserKernel extends ThreadedKernel {
 	System.out.println("");
     }
 
+    /**
+     * Measures how fast the processor runs user instructions.
+     */
+    public static void benchmark() {
+	InstructionRateTest.runTest();
+    }
+
     /**
      * Returns the current process.
      *
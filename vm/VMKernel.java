@@ -28,6 +28,14 @@ public class VMKernel extends UserKernel {
      */	
     public void selfTest() {
 	super.selfTest();
+//	VMKernel.benchmark();
+    }
+
+    /**
+     * Measures how long TLB misses take.
+     */
+    public static void benchmark() {
+	TLBMissTest.runTest();
     }
 
     /**